@@ -0,0 +1,123 @@
+package proj10ZhouRinkerSahChistolini.Benchmarks;
+
+import proj10ZhouRinkerSahChistolini.Models.AudioSynthesizers;
+import proj10ZhouRinkerSahChistolini.Models.EventBuffer;
+import proj10ZhouRinkerSahChistolini.Models.PlaybackStats;
+import proj10ZhouRinkerSahChistolini.Models.TempoMap;
+import proj10ZhouRinkerSahChistolini.Models.TimingReceiver;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Plays random compositions through the midi sequencer the way the
+ * application does, with a TimingReceiver between the sequencer and the
+ * synthesizer, and prints the PlaybackStats histograms. The synthesizer
+ * is opened as a stream which a background thread drains in real time,
+ * so no sound card is needed and this runs headless.
+ *
+ * Run with the note counts to try as arguments, 1000 and 100000 by
+ * default. Each composition plays for the number of seconds given by
+ * the benchmark.seconds system property, 5 by default. On Java 9 and
+ * later the synthesizer can only be opened as a stream when run with
+ * --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED.
+ */
+public class PlaybackLatencyBenchmark {
+    /** ticks per beat, as used by the composition */
+    private static final int RESOLUTION = 100;
+    /** the tempo the compositions play at */
+    private static final int BEATS_PER_MINUTE = 120;
+    /** the number of channels the notes are spread over */
+    private static final int CHANNELS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        long playMillis = 1000L * Integer.getInteger("benchmark.seconds", 5);
+
+        AudioFormat format = new AudioFormat(44100f, 16, 2, true, false);
+        Synthesizer synthesizer = MidiSystem.getSynthesizer();
+        AudioInputStream stream = AudioSynthesizers.openStream(synthesizer, format);
+        Thread drain = new Thread(() -> drain(stream, format), "audio-drain");
+        drain.setDaemon(true);
+        drain.start();
+
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        TimingReceiver tap = new TimingReceiver();
+        tap.setReceiver(synthesizer.getReceiver());
+        sequencer.getTransmitter().setReceiver(tap);
+        sequencer.open();
+        try {
+            for (int size : sizes) {
+                PlaybackStats stats = new PlaybackStats();
+                tap.setStats(stats);
+                TempoMap tempoMap = new TempoMap(RESOLUTION, BEATS_PER_MINUTE);
+
+                stats.begin();
+                Sequence sequence = build(size);
+                sequencer.setSequence(sequence);
+                stats.built();
+                sequencer.setTickPosition(0);
+                sequencer.setTempoInBPM(BEATS_PER_MINUTE);
+                stats.arm(PlaybackStats.noteOnTicks(sequence, 0), 0, -1, -1, tempoMap);
+                sequencer.start();
+                Thread.sleep(playMillis);
+                sequencer.stop();
+                stats.disarm();
+
+                System.out.printf("=== %d notes ===%n%s%n", size, stats);
+            }
+        } finally {
+            sequencer.close();
+            synthesizer.close();
+        }
+    }
+
+    /** returns a sequence of random notes, about 4 starting per beat */
+    private static Sequence build(int count) throws InvalidMidiDataException {
+        Random random = new Random(count);
+        Sequence sequence = new Sequence(Sequence.PPQ, RESOLUTION, 1);
+        Track track = sequence.getTracks()[0];
+        EventBuffer buffer = new EventBuffer(count);
+        for (int i = 0; i < count; i++) {
+            int channel = random.nextInt(CHANNELS);
+            buffer.addNote(random.nextInt(128), 1 + random.nextInt(127),
+                           random.nextInt(count / 4 + 1) * RESOLUTION,
+                           (1 + random.nextInt(8)) * RESOLUTION / 4,
+                           channel, channel * 8);
+        }
+        buffer.writeTo(track);
+        return sequence;
+    }
+
+    /** reads the synthesizer output at the rate it would play at */
+    private static void drain(AudioInputStream stream, AudioFormat format) {
+        int frames = (int) (format.getFrameRate() / 100);
+        byte[] block = new byte[frames * format.getFrameSize()];
+        long next = System.nanoTime();
+        try {
+            while (stream.read(block) > 0) {
+                next += 10000000L;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            //the synthesizer was closed
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package proj10ZhouRinkerSahChistolini.Benchmarks;
+
+import proj10ZhouRinkerSahChistolini.Models.EventBuffer;
+import proj10ZhouRinkerSahChistolini.Models.NoteStore;
+import proj10ZhouRinkerSahChistolini.Models.ParallelSequenceBuilder;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Compares building a track through an EventBuffer on one thread with
+ * building it through a ParallelSequenceBuilder on every core. The
+ * notes are fed in a shuffled order, as they come out of a hash set.
+ *
+ * Run with the note counts to try as arguments, 10000 100000 and
+ * 1000000 by default.
+ */
+public class SequenceBuildBenchmark {
+    /** ticks per beat, as used by the composition */
+    private static final int RESOLUTION = 100;
+    /** the number of channels the notes are spread over */
+    private static final int CHANNELS = 8;
+
+    public static void main(String[] args) throws InvalidMidiDataException {
+        int[] sizes = {10000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        //warm up both paths so the first row is not all class loading
+        buildBuffered(notes(5000));
+        ParallelSequenceBuilder builder = new ParallelSequenceBuilder();
+        buildParallel(builder, store(notes(100000)));
+
+        System.out.printf("%10s %14s %14s %10s%n", "notes",
+                          "buffered ms", "parallel ms", "events/note");
+        for (int size : sizes) {
+            int[][] notes = notes(size);
+            long start = System.nanoTime();
+            Track track = buildBuffered(notes);
+            double buffered = (System.nanoTime() - start) / 1e6;
+            //the track also holds its end of track event
+            double eventsPerNote = (track.size() - 1) / (double) size;
+            NoteStore store = store(notes);
+            start = System.nanoTime();
+            buildParallel(builder, store);
+            double parallel = (System.nanoTime() - start) / 1e6;
+            System.out.printf("%10d %14.1f %14.1f %10.3f%n", size,
+                              buffered, parallel, eventsPerNote);
+        }
+    }
+
+    /**
+     * returns random notes as {pitch, volume, startTick, duration, channel, instrument}
+     * in no particular order
+     */
+    private static int[][] notes(int count) {
+        Random random = new Random(count);
+        int[][] notes = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int channel = random.nextInt(CHANNELS);
+            notes[i] = new int[] {
+                    random.nextInt(128), random.nextInt(128),
+                    random.nextInt(count / 4 + 1) * RESOLUTION / 4,
+                    (1 + random.nextInt(8)) * RESOLUTION / 4,
+                    channel, channel * 8
+            };
+        }
+        return notes;
+    }
+
+    /** returns a store holding the notes, all of them live */
+    private static NoteStore store(int[][] notes) {
+        NoteStore store = new NoteStore();
+        for (int[] note : notes) {
+            int id = store.allocate(null);
+            store.setPitch(id, note[0]);
+            store.setVolume(id, note[1]);
+            store.setStartTick(id, note[2]);
+            store.setDuration(id, note[3]);
+            store.setChannel(id, note[4]);
+            store.setInstrument(id, note[5]);
+        }
+        return store;
+    }
+
+    /** builds the track from every note of the store with the builder */
+    private static Track buildParallel(ParallelSequenceBuilder builder, NoteStore store)
+            throws InvalidMidiDataException {
+        Track track = new Sequence(Sequence.PPQ, RESOLUTION, 1).getTracks()[0];
+        BitSet ids = new BitSet();
+        ids.set(0, store.size());
+        builder.build(store, ids, 0, track);
+        return track;
+    }
+
+    /** builds the track through an EventBuffer */
+    private static Track buildBuffered(int[][] notes) throws InvalidMidiDataException {
+        Track track = new Sequence(Sequence.PPQ, RESOLUTION, 1).getTracks()[0];
+        EventBuffer buffer = new EventBuffer(notes.length);
+        for (int[] note : notes) {
+            buffer.addNote(note[0], note[1], note[2], note[3], note[4], note[5]);
+        }
+        buffer.writeTo(track);
+        return track;
+    }
+}
@@ -11,7 +11,22 @@
 package proj10ZhouRinkerSahChistolini.Controllers;
 
 import javafx.fxml.FXML;
+import javafx.geometry.Insets;
+import javafx.scene.chart.AreaChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.VBox;
+import proj10ZhouRinkerSahChistolini.Models.Composition;
+import proj10ZhouRinkerSahChistolini.Models.PlaybackStats;
+import proj10ZhouRinkerSahChistolini.Models.PolyphonyAnalysis;
+import proj10ZhouRinkerSahChistolini.Views.TempoLine;
 
 /**
  * Controller for the action menu.
@@ -30,6 +45,12 @@ public class ActionMenuController {
     @FXML
     //filed to control the start button
     public MenuItem startButton;
+    @FXML
+    //field to control the pause button
+    private MenuItem pauseButton;
+    @FXML
+    //field to control the resume button
+    private MenuItem resumeButton;
 
     /** reference to the CompositionPanelController */
     private CompositionPanelController compositionPanelController;
@@ -59,6 +80,95 @@ public class ActionMenuController {
      */
     public void stopComposition() { this.compositionPanelController.stopComposition(); }
 
+    @FXML
+    /**
+     * Pauses the composition, remembering where it stopped
+     */
+    public void pauseComposition() { this.compositionPanelController.pauseComposition(); }
+
+    @FXML
+    /**
+     * Resumes the composition from where it was paused
+     */
+    public void resumeComposition() { this.compositionPanelController.resumeComposition(); }
+
+    @FXML
+    /**
+     * Shows the playback timing histograms, the playhead skew and the
+     * number of midi events written per note
+     */
+    public void showPlaybackStats() {
+        Composition composition = this.compositionPanelController.getComposition();
+        PlaybackStats stats = composition.getPlaybackStats();
+        TempoLine tempoLine = this.compositionPanelController.getTempoLine();
+        TextArea text = new TextArea(stats.toString() + String.format(
+                "playhead skew: last=%d max=%d (us)%n"
+                + "events per note: %.3f, program changes: %d%n",
+                tempoLine.getLastSkewMicros(), tempoLine.getMaxSkewMicros(),
+                composition.getEventsPerNote(), composition.getProgramChangeCount()));
+        text.setEditable(false);
+        text.setStyle("-fx-font-family: monospace;");
+        text.setPrefColumnCount(80);
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Playback Stats");
+        alert.setHeaderText("Playback Stats");
+        alert.getDialogPane().setContent(text);
+        alert.show();
+    }
+
+    @FXML
+    /**
+     * Shows how many notes sound at once over the composition and on each
+     * channel, and lets the user set the voice limit per channel
+     */
+    public void showPolyphony() {
+        this.compositionPanelController.stopComposition();
+        Composition composition = this.compositionPanelController.getComposition();
+        //about 500 points however long the composition is
+        int binTicks = Math.max(1, composition.getEndTick() / 500);
+        PolyphonyAnalysis analysis = composition.analyzePolyphony(binTicks);
+
+        XYChart.Series<Number, Number> series = new XYChart.Series<>();
+        series.setName("notes sounding");
+        int[] density = analysis.getDensity();
+        for (int bin = 0; bin < density.length; bin++) {
+            series.getData().add(new XYChart.Data<>(bin * binTicks, density[bin]));
+        }
+        AreaChart<Number, Number> chart = new AreaChart<>(new NumberAxis(), new NumberAxis());
+        chart.getXAxis().setLabel("tick");
+        chart.getYAxis().setLabel("notes");
+        chart.setCreateSymbols(false);
+        chart.setAnimated(false);
+        chart.getData().add(series);
+
+        StringBuilder peaks = new StringBuilder(String.format(
+                "Peak: %d notes at tick %d%n", analysis.getPeak(), analysis.getPeakTick()));
+        for (int channel = 0; channel < PolyphonyAnalysis.CHANNEL_COUNT; channel++) {
+            if (analysis.getPeak(channel) > 0) {
+                peaks.append(String.format("Channel %d: %d notes at tick %d%n", channel,
+                        analysis.getPeak(channel), analysis.getPeakTick(channel)));
+            }
+        }
+        TextField limit = new TextField(String.valueOf(composition.getVoiceLimit()));
+        VBox content = new VBox(10, chart, new Label(peaks.toString()),
+                                new Label("Voice limit per channel (0 for none):"), limit);
+        content.setPadding(new Insets(10));
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Polyphony");
+        dialog.getDialogPane().setContent(content);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.APPLY, ButtonType.CANCEL);
+        dialog.showAndWait().ifPresent(button -> {
+            if (button == ButtonType.APPLY) {
+                try {
+                    composition.setVoiceLimit(Math.max(0, Integer.parseInt(limit.getText())));
+                } catch (NumberFormatException e) {
+                    //keep the current limit
+                }
+            }
+        });
+    }
+
     /**
      * Sets up the bindings for the menuButtons in order to disable them
      */
@@ -71,5 +181,14 @@ public class ActionMenuController {
         this.startButton.disableProperty().bind(
                 this.bindingController.getChildrenProperty().sizeProperty().isEqualTo(0)
         );
+        //pauseButton
+        this.pauseButton.disableProperty().bind(
+                this.compositionPanelController.getTempoLine().isPlayingProperty().not()
+        );
+        //resumeButton
+        this.resumeButton.disableProperty().bind(
+                this.compositionPanelController.getTempoLine().isPlayingProperty().or(
+                        this.bindingController.getChildrenProperty().sizeProperty().isEqualTo(0))
+        );
     }
 }
@@ -6,7 +6,6 @@ import proj10ZhouRinkerSahChistolini.Views.SelectableRectangle;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Action to keep track of changing instruments in selectable rectangles
@@ -49,15 +48,9 @@ public class ChangeInstrumentAction implements Actionable{
      */
     @Override
     public void reDoIt() {
-        graphicalNotes.forEach(n-> {
-            n.setInstrument(
-                    compController.getInstrumentPanelController().getInstruments()
-                            .stream()
-                            .filter(
-                                    i -> i.getName().equals(afterInstrument)
-                            ).collect(Collectors.toList()).get(0).getValue()
-            );
-        });
+        int value = compController.getInstrumentPanelController()
+                .getInstrumentValues(afterInstrument);
+        graphicalNotes.forEach(n -> n.setInstrument(value));
     }
 
     /**
@@ -51,7 +51,7 @@ public class BindingController {
      */
     public BooleanBinding getAreNotesSelectedBinding() {
         BooleanBinding selectedNotesBinding = Bindings.createBooleanBinding(() ->
-            this.compositionController.getSelectedRectangles().size() == 0,
+            this.compositionController.getSelectedRectangleCount() == 0,
             this.compositionController.getActionController().getUndoActionsProperty()
         );
         return selectedNotesBinding;
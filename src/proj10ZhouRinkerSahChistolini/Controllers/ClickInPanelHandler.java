@@ -58,6 +58,11 @@ public class ClickInPanelHandler {
      */
     public void handle(MouseEvent event, int instId, int width, int volume) {
         if (event.getButton() == MouseButton.SECONDARY){ return; }
+        if (event.isAltDown()) {//alt click plays from the clicked x
+            this.compController.playFrom((int) (event.getX()
+                    / this.compController.getZoomFactor().getValue()));
+            return;
+        }
         this.before = (
                 this.compController.getSelectedRectangles()
         );
@@ -120,10 +125,14 @@ public class ClickInPanelHandler {
      * @return new Note
      */
     public Note createBoundNote(NoteRectangle rectangle, int instId, int volume){
-        Note note = new Note(this.instController.getInstrument(instId), volume);
-        note.intrValProperty().addListener(e -> {
+        Note note = new Note(
+                this.compController.getComposition().getNoteStore(),
+                this.instController.getInstrument(instId),
+                volume
+        );
+        rectangle.instrumentProperty().addListener((observable, oldValue, newValue) -> {
             note.setInstrument(
-                    instController.getInstrument(note.getInstrumentValue())
+                    instController.getInstrument(newValue.intValue())
             );
         });
         bindNotetoRectangle(note, rectangle);
@@ -145,6 +154,8 @@ public class ClickInPanelHandler {
 
         this.compController.addNoteRectangle(rectangle, true);
         this.compController.addNoteToComposition(note);
+        this.compController.getComposition().audition(
+                note.getPitch(), note.getInstrumentValue(), note.getVolume());
 
         //add the undoable action
         AddNoteAction actionPreformed = new AddNoteAction(
@@ -164,11 +175,16 @@ public class ClickInPanelHandler {
      *
      */
     private void bindNotetoRectangle(Note note, NoteRectangle rectangle) {
-        note.pitchProperty().bind(rectangle.yProperty() );
-        note.durationProperty().bind(rectangle.widthProperty());
-        note.startTickProperty().bind(rectangle.xProperty());
+        note.setY(rectangle.getY());
+        note.setDuration((int) rectangle.getWidth());
+        note.setStartTick((int) rectangle.getX());
+        rectangle.yProperty().addListener((observable, oldValue, newValue) ->
+                note.setY(newValue.doubleValue()));
+        rectangle.widthProperty().addListener((observable, oldValue, newValue) ->
+                note.setDuration(newValue.intValue()));
+        rectangle.xProperty().addListener((observable, oldValue, newValue) ->
+                note.setStartTick(newValue.intValue()));
         note.selectedProperty().bind(rectangle.selectedProperty());
-        note.intrValProperty().bind(rectangle.instrumentProperty());
         rectangle.volumeProperty().bind(note.volumeProperty());
     }
 }
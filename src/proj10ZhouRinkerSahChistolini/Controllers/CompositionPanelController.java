@@ -15,6 +15,7 @@ import javafx.beans.binding.Bindings;
 import javafx.beans.property.*;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
 import javafx.fxml.FXML;
 import javafx.scene.Group;
 import javafx.scene.Node;
@@ -33,6 +34,7 @@ import proj10ZhouRinkerSahChistolini.Models.Playable;
 import proj10ZhouRinkerSahChistolini.Views.GroupRectangle;
 import proj10ZhouRinkerSahChistolini.Models.Composition;
 import proj10ZhouRinkerSahChistolini.Views.NoteRectangle;
+import proj10ZhouRinkerSahChistolini.Views.RectangleGrid;
 import proj10ZhouRinkerSahChistolini.Views.SelectableRectangle;
 import proj10ZhouRinkerSahChistolini.Views.TempoLine;
 import javafx.beans.binding.DoubleBinding;
@@ -40,6 +42,7 @@ import javafx.beans.binding.DoubleBinding;
 import javax.sound.midi.Sequence;
 import java.util.HashSet;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 
 import static java.lang.Math.min;
 import static java.lang.Math.max;
@@ -65,6 +68,9 @@ public class CompositionPanelController {
     @FXML
     private TempoLine tempoLine;
 
+    /** the tick playback was last paused at */
+    private int pausedTick = 0;
+
     /**  group that wraps around the composition panel and the staffpanel*/
     @FXML
     private Group groupToScale;
@@ -107,6 +113,27 @@ public class CompositionPanelController {
     /** property panel controller reference */
     private PropertyPanelController propPanel;
 
+    /** spatial index of the rectangles on the composition panel */
+    private RectangleGrid rectangleGrid = new RectangleGrid();
+
+    /** the selected rectangles on the composition panel */
+    private LinkedHashSet<SelectableRectangle> selectedRectangles = new LinkedHashSet<>();
+
+    /** the number of selected rectangles on the composition panel */
+    private ReadOnlyIntegerWrapper selectedCount = new ReadOnlyIntegerWrapper(this, "selectedCount", 0);
+
+    /** moves a rectangle in or out of the selected rectangles */
+    private ChangeListener<Boolean> selectionListener = (observable, oldValue, newValue) -> {
+        SelectableRectangle rectangle =
+                (SelectableRectangle) ((ReadOnlyProperty<?>) observable).getBean();
+        if (newValue) {
+            this.selectedRectangles.add(rectangle);
+        } else {
+            this.selectedRectangles.remove(rectangle);
+        }
+        this.selectedCount.set(this.selectedRectangles.size());
+    };
+
     /**
      * Constructs the Panel and draws the appropriate lines.
      */
@@ -120,6 +147,23 @@ public class CompositionPanelController {
 
 
         this.compositionPanel.toFront();
+        //keep the spatial index and the selection in step with the rectangles on the pane
+        this.compositionPanel.getChildren().addListener(
+                (ListChangeListener<Node>) change -> {
+                    while (change.next()) {
+                        for (Node node : change.getRemoved()) {
+                            if (node instanceof SelectableRectangle) {
+                                this.untrackRectangle((SelectableRectangle) node);
+                            }
+                        }
+                        for (Node node : change.getAddedSubList()) {
+                            if (node instanceof SelectableRectangle) {
+                                this.trackRectangle((SelectableRectangle) node);
+                            }
+                        }
+                    }
+                }
+        );
         //adds the scale transformation to the group
         this.groupToScale.getTransforms().add(scale);
 
@@ -128,6 +172,11 @@ public class CompositionPanelController {
 
         //bind to tempoLine
         this.isPlaying.bind(this.tempoLine.isPlayingProperty());
+        //the playhead follows the tick being played
+        this.tempoLine.setTickSource(this.composition::getTickPosition);
+        this.tempoLine.setAudioSource(this.composition::getAudibleMicros);
+        this.tempoLine.setTempoMap(this.composition.getTempoMap()::toMicros,
+                                   this.composition.getTempoMap()::toTick);
 
         // creates binding for zoom
         this.zoomFactor.addListener(new ChangeListener<Number>() {
@@ -272,6 +321,21 @@ public class CompositionPanelController {
         return newSet;
     }
 
+    /**
+     * gets the rectangles intersecting the given area of the panel
+     * @param x the left of the area
+     * @param y the top of the area
+     * @param width the width of the area
+     * @param height the height of the area
+     * @return a collection of SelectableRectangles
+     */
+    public Collection<SelectableRectangle> getRectanglesIn(double x, double y,
+                                                           double width, double height) {
+        HashSet<SelectableRectangle> found = new HashSet<>();
+        this.rectangleGrid.query(x, y, width, height, found);
+        return found;
+    }
+
     /**
      * gets the Note objects from the composition
      * @return the notes on Composition
@@ -302,13 +366,47 @@ public class CompositionPanelController {
      * @return a collection of selected notes
      */
     public Collection<SelectableRectangle> getSelectedRectangles() {
-        HashSet<SelectableRectangle> selectedList = new HashSet<>();
-        for(SelectableRectangle rectangle : this.getRectangles()){
-            if(rectangle.isSelected()){
-                selectedList.add(rectangle);
-            }
+        return new HashSet<>(this.selectedRectangles);
+    }
+
+    /**
+     * returns the number of selected rectangles
+     */
+    public int getSelectedRectangleCount() {
+        return this.selectedCount.get();
+    }
+
+    /**
+     * returns a read only property holding the number of selected rectangles
+     */
+    public ReadOnlyIntegerProperty selectedCountProperty() {
+        return this.selectedCount.getReadOnlyProperty();
+    }
+
+    /**
+     * starts following the bounds and the selection of a rectangle
+     * added to the pane
+     * @param rectangle the rectangle added to the pane
+     */
+    private void trackRectangle(SelectableRectangle rectangle) {
+        this.rectangleGrid.add(rectangle);
+        rectangle.selectedProperty().addListener(this.selectionListener);
+        if (rectangle.isSelected()) {
+            this.selectedRectangles.add(rectangle);
+            this.selectedCount.set(this.selectedRectangles.size());
+        }
+    }
+
+    /**
+     * stops following a rectangle removed from the pane
+     * @param rectangle the rectangle removed from the pane
+     */
+    private void untrackRectangle(SelectableRectangle rectangle) {
+        this.rectangleGrid.remove(rectangle);
+        rectangle.selectedProperty().removeListener(this.selectionListener);
+        if (this.selectedRectangles.remove(rectangle)) {
+            this.selectedCount.set(this.selectedRectangles.size());
         }
-        return selectedList;
     }
 
     /**
@@ -324,10 +422,65 @@ public class CompositionPanelController {
      * Stops the current animation and plays a new one if one already exists.
      */
     public void playComposition() {
+        this.composition.clearLoop();
+        this.playFrom(0);
+    }
+
+    /**
+     * Plays the composition from the given tick, with the animation
+     * starting at the matching x. The synced sequence is repositioned
+     * rather than rebuilt, so starting in the middle costs no more
+     * than starting at the beginning.
+     * @param tick the tick to start at
+     */
+    public void playFrom(int tick) {
+        this.composition.getPlaybackStats().begin();
         this.stopComposition();
+        if (tick >= this.composition.getEndTick()) {
+            return;
+        }
         this.composition.buildSong();
-        this.beginAnimation();
-        this.composition.play();
+        this.composition.getPlaybackStats().built();
+        this.beginAnimation(tick);
+        this.composition.play(tick);
+    }
+
+    /**
+     * Loops the span of the given notes until stopped. The whole
+     * composition stays loaded and the sequencer jumps back at the end of
+     * the span, so every pass follows the last without a gap.
+     * @param notes the notes whose span is looped
+     */
+    public void loopSection(Collection<Playable> notes) {
+        double maxX = 0;
+        double minX = Integer.MAX_VALUE;
+        for(Playable note: notes){
+            maxX = max(maxX, note.getX() + note.getWidth());
+            minX = Math.min(minX, note.getX());
+        }
+        if (maxX <= minX) {
+            return;
+        }
+        this.composition.setLoop((int) minX, (int) maxX);
+        this.playFrom((int) minX);
+    }
+
+    /**
+     * Stops playing and remembers where, so resumeComposition can go on
+     * from there
+     */
+    public void pauseComposition() {
+        if (this.isPlaying.get()) {
+            this.pausedTick = this.composition.getTickPosition();
+        }
+        this.stopComposition();
+    }
+
+    /**
+     * Plays the composition from where it was last paused
+     */
+    public void resumeComposition() {
+        this.playFrom(this.pausedTick);
     }
 
     /**
@@ -335,8 +488,11 @@ public class CompositionPanelController {
      * @param notes
      */
     public void playSection(Collection<Playable> notes){
+        this.composition.getPlaybackStats().begin();
         this.stopComposition();
+        this.composition.clearLoop();
         this.composition.buildSong(notes);
+        this.composition.getPlaybackStats().built();
         this.beginAnimation(notes);
         this.composition.play();
     }
@@ -361,11 +517,24 @@ public class CompositionPanelController {
      * the length of the composition.
      */
     public void beginAnimation() {
-        double maxX = 0;
-        for(Playable note: this.getNotesfromComposition()){
-            maxX = max(maxX, note.getX() + note.getWidth());
+        this.beginAnimation(0);
+    }
+
+    /**
+     * Instantiates the line and transition fields and begins the animation
+     * at the x of the given tick
+     * @param fromTick the tick playback starts at
+     */
+    public void beginAnimation(int fromTick) {
+        double maxX = this.composition.getEndTick();
+        if (this.composition.isLooping()) {
+            this.tempoLine.setLoop(this.composition.getLoopStart(),
+                                   this.composition.getLoopEnd());
+        } else {
+            this.tempoLine.clearLoop();
         }
-        this.tempoLine.updateTempoLine(maxX,
+        this.tempoLine.updateTempoLine(fromTick,
+                                       maxX,
                                        zoomFactor.getValue(),
                                        this.composition.getTempo());
         this.tempoLine.playAnimation();
@@ -382,6 +551,7 @@ public class CompositionPanelController {
             maxX = max(maxX, note.getX() + note.getWidth());
             minX = Math.min(minX, note.getX());
         }
+        this.tempoLine.clearLoop();
         this.tempoLine.updateTempoLine(minX,
                                        maxX,
                                        zoomFactor.getValue(),
@@ -400,10 +570,8 @@ public class CompositionPanelController {
      * clears the selection of the rectangles
      */
     public void clearSelected() {
-        for(SelectableRectangle rectangle: this.getRectangles()){
-            if(rectangle.isSelected()){
-                rectangle.setSelected(false);
-            }
+        for(SelectableRectangle rectangle: this.getSelectedRectangles()){
+            rectangle.setSelected(false);
         }
     }
 
@@ -602,6 +770,7 @@ public class CompositionPanelController {
         if(noteWidth != 0) { this.noteWidth = noteWidth; }
         this.composition.setVolume(max(0, min(volume, 127)));
         this.composition.setTempo(max(tempo, 1));
+        this.tempoLine.setTempo(max(tempo, 1));
     }
 
 
@@ -611,6 +780,7 @@ public class CompositionPanelController {
     public void reset() {
         selectAllNotes();
         deleteSelectedNotes();
+        this.composition.clear();
         this.actionController.clearLists();
     }
 
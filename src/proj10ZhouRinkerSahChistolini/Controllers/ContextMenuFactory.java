@@ -25,7 +25,6 @@ import proj10ZhouRinkerSahChistolini.Models.Playable;
 import proj10ZhouRinkerSahChistolini.Views.SelectableRectangle;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Aids in creation and linking to right click menus on non control nodes
@@ -52,14 +51,16 @@ public class ContextMenuFactory {
         ContextMenu menu = new ContextMenu();
         MenuItem delete = new MenuItem("Delete");
         MenuItem playSelected = new MenuItem("Play selected");
+        MenuItem loopSelected = new MenuItem("Loop selected");
         MenuItem setVolume = new MenuItem("Set Volume...");
 
         delete.setOnAction(handler::delete);
         playSelected.setOnAction(handler::playSelected);
+        loopSelected.setOnAction(handler::loopSelected);
         Menu setInstrument = setUpInstrumentOptions();
         setVolume.setOnAction(handler::setVolume);
 
-        menu.getItems().addAll(delete, playSelected, setVolume, setInstrument);
+        menu.getItems().addAll(delete, playSelected, loopSelected, setVolume, setInstrument);
 
         return menu;
     }
@@ -116,20 +117,19 @@ public class ContextMenuFactory {
             compController.playSection(compController.getSelectedNotes());
         }
 
+        /** Loop the span of the selected notes */
+        private void loopSelected(ActionEvent e) {
+            compController.loopSection(compController.getSelectedNotes());
+        }
+
         /** Set selected Rectangles to a specified instrument*/
         private void setInstrument(String text){
             List<SelectableRectangle> before = new ArrayList<>();
             compController.getSelectedRectangles().forEach(n->before.add(n));
             compController.addAction(new ChangeInstrumentAction(compController,before,text));
-            before.forEach(n-> {
-                n.setInstrument(
-                        compController.getInstrumentPanelController().getInstruments()
-                                .stream()
-                                .filter(
-                                        i -> i.getName().equals(text)
-                                ).collect(Collectors.toList()).get(0).getValue()
-                );
-            });
+            int value = compController.getInstrumentPanelController()
+                    .getInstrumentValues(text);
+            before.forEach(n -> n.setInstrument(value));
 
             compController.getPropPanelController().populatePropertyPanel();
         }
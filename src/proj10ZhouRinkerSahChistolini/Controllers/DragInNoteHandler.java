@@ -18,6 +18,7 @@ import proj10ZhouRinkerSahChistolini.Controllers.Actions.Actionable;
 import proj10ZhouRinkerSahChistolini.Controllers.Actions.ExtendNoteAction;
 import proj10ZhouRinkerSahChistolini.Controllers.Actions.SelectAction;
 import proj10ZhouRinkerSahChistolini.Controllers.Actions.TranslateNoteAction;
+import proj10ZhouRinkerSahChistolini.Views.NoteRectangle;
 import proj10ZhouRinkerSahChistolini.Views.SelectableRectangle;
 
 import java.util.ArrayList;
@@ -47,6 +48,8 @@ public class DragInNoteHandler {
     private Collection<SelectableRectangle> beforeState;
     /** rectangles after current state action */
     private Collection<SelectableRectangle> afterState;
+    /** the pitch last previewed during this drag, -1 if none */
+    private int auditionedPitch;
 
     /**Creates a new DragInNoteHandler
      *
@@ -82,6 +85,7 @@ public class DragInNoteHandler {
         }
         this.previousX = event.getX();
         this.previousY = event.getY();
+        this.auditionedPitch = this.pitchOf(this.sourceRectangle);
         event.consume();
     }
 
@@ -127,6 +131,32 @@ public class DragInNoteHandler {
         this.totalDeltaY += deltaY;
         this.previousX = event.getX();
         this.previousY = event.getY();
+        this.auditionPitchChange();
+    }
+
+    /**
+     * Plays a preview of the dragged note when it moves to a new pitch row
+     */
+    private void auditionPitchChange() {
+        if (!(this.sourceRectangle instanceof NoteRectangle)) {
+            return;
+        }
+        int pitch = this.pitchOf(this.sourceRectangle);
+        if (pitch != this.auditionedPitch) {
+            this.auditionedPitch = pitch;
+            NoteRectangle note = (NoteRectangle) this.sourceRectangle;
+            this.compController.getComposition().audition(
+                    pitch, note.getInstrument(), note.volumeProperty().get());
+        }
+    }
+
+    /**
+     * returns the pitch of the row the rectangle is in
+     * @param rectangle the rectangle to find the pitch of
+     */
+    private int pitchOf(SelectableRectangle rectangle) {
+        int row = (int) Math.floor((rectangle.getY() - 1) / 10);
+        return Math.max(0, Math.min(127, 127 - row));
     }
 
     /**
@@ -17,6 +17,7 @@ import proj10ZhouRinkerSahChistolini.Controllers.Actions.SelectAction;
 import proj10ZhouRinkerSahChistolini.Views.SelectableRectangle;
 
 import java.util.Collection;
+import java.util.HashSet;
 
 public class DragInPanelHandler {
 
@@ -33,6 +34,10 @@ public class DragInPanelHandler {
 
     private Collection<SelectableRectangle> before;
     private Collection<SelectableRectangle> after;
+    /** The rectangles inside the selection rectangle at the last drag event */
+    private Collection<SelectableRectangle> inSelection;
+    /** Whether the selection was cleared for this drag */
+    private boolean cleared;
 
     /**
      * Creates a new DragInPaneHandler
@@ -55,6 +60,8 @@ public class DragInPanelHandler {
         this.selectionRectangle.setY(this.startY);
         this.metaDown = event.isShortcutDown();
         before = this.compController.getSelectedRectangles();
+        this.inSelection = new HashSet<>();
+        this.cleared = false;
     }
 
     /**
@@ -64,11 +71,12 @@ public class DragInPanelHandler {
     public void handleDragged(MouseEvent event) {
         this.selectionRectangle.setVisible(true);
         double scaleFactor = this.compController.getZoomFactor().getValue();
-        if(!this.metaDown &&
+        if(!this.metaDown && !this.cleared &&
                 (this.selectionRectangle.getWidth() > 5 ||
                         this.selectionRectangle.getHeight() > 5))
         {
             this.compController.clearSelected();
+            this.cleared = true;
         }
         double leftX = Math.min(event.getX(),this.startX);
         double width = Math.abs(event.getX()-this.startX);
@@ -89,14 +97,28 @@ public class DragInPanelHandler {
         double descaledHeight = Math.abs(event.getY()/scaleFactor
                 -this.startY/scaleFactor);
 
-        for (SelectableRectangle rectangle : compController.getRectangles()) {
-            if (rectangle.intersects(descaledLeftX, descaledLowestY,
-                    descaledWidth, descaledHeight)) {
+        Collection<SelectableRectangle> found = this.compController.getRectanglesIn(
+                descaledLeftX, descaledLowestY, descaledWidth, descaledHeight
+        );
+        boolean changed = false;
+        //only touch the rectangles which left or entered since the last event
+        for (SelectableRectangle rectangle : this.inSelection) {
+            if (!found.contains(rectangle) &&
+                    (this.cleared || !this.before.contains(rectangle))) {
+                rectangle.setSelected(false);
+                changed = true;
+            }
+        }
+        for (SelectableRectangle rectangle : found) {
+            if (!this.inSelection.contains(rectangle) || !rectangle.isSelected()) {
                 rectangle.setSelected(true);
+                changed = true;
             }
         }
-        this.compController.getPropPanelController().populatePropertyPanel();
-
+        this.inSelection = found;
+        if (changed) {
+            this.compController.getPropPanelController().populatePropertyPanel();
+        }
     }
 
     /**
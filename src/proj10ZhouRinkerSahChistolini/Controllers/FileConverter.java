@@ -1,9 +1,13 @@
 package proj10ZhouRinkerSahChistolini.Controllers;
 
 
+import proj10ZhouRinkerSahChistolini.Models.CompositionSnapshot;
+
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.function.BooleanSupplier;
 
 import javax.sound.midi.*;
 import javax.xml.parsers.ParserConfigurationException;
@@ -16,7 +20,6 @@ import static java.lang.Integer.max;
 public class FileConverter {
     public static final int NOTE_ON = ShortMessage.NOTE_ON;
     public static final int NOTE_OFF = ShortMessage.NOTE_OFF;
-    private Sequence sequence;
 
     private CompositionPanelController compositionPanelController;
     private XMLHandler xmlHandler;
@@ -36,9 +39,28 @@ public class FileConverter {
      */
     public void importMidi(File file) throws IOException, InvalidMidiDataException,
             ParserConfigurationException, org.xml.sax.SAXException {
-        this.sequence = MidiSystem.getSequence(file);
-        String xml = "<Composition>\n" + this.midiToString() + "</Composition>\n";
-        this.xmlHandler.loadNotesFromXML(xml);
+        this.xmlHandler.addToComposition(readMidi(
+                file, this.compositionPanelController.getCompositionTempo(), () -> false));
+    }
+
+    /**
+     * Reads the notes of a midi file without touching the composition,
+     * so it can be called on any thread
+     * @param file the midi file to read
+     * @param tempo the tempo of the composition the notes will be added to
+     * @param cancelled checked while parsing, which stops once it returns true
+     * @return the notes read
+     * @throws IOException
+     * @throws InvalidMidiDataException
+     * @throws ParserConfigurationException
+     * @throws org.xml.sax.SAXException
+     */
+    public CompositionSnapshot readMidi(File file, int tempo, BooleanSupplier cancelled)
+            throws IOException, InvalidMidiDataException,
+            ParserConfigurationException, org.xml.sax.SAXException {
+        Sequence sequence = MidiSystem.getSequence(file);
+        String xml = "<Composition>\n" + midiToString(sequence, tempo) + "</Composition>\n";
+        return XMLHandler.parseXML(new StringReader(xml), cancelled);
     }
 
     /**
@@ -47,8 +69,9 @@ public class FileConverter {
      * @param off
      * @return
      */
-    private String createNoteString(MidiEvent on, MidiEvent off){
-        int bpmMod = sequence.getResolution()/(compositionPanelController.getCompositionTempo()/2);
+    private static String createNoteString(Sequence sequence, int tempo,
+                                           MidiEvent on, MidiEvent off){
+        int bpmMod = sequence.getResolution()/(tempo/2);
         return "    <Note " +
                 "xpos=\"" + (int)on.getTick()/bpmMod  +"\" "+
                 "ypos=\"" + ((127-(((ShortMessage) on.getMessage()).getData1()))*10) +"\" "+
@@ -64,7 +87,7 @@ public class FileConverter {
      * @param off
      * @return
      */
-    private MidiEvent getAssociatedOnMessage(ArrayList<MidiEvent> onList, ShortMessage off){
+    private static MidiEvent getAssociatedOnMessage(ArrayList<MidiEvent> onList, ShortMessage off){
         int index = 0;
         for(int i = 0; i< onList.size(); i++){
             if(((ShortMessage)onList.get(i).getMessage()).getData1() == off.getData1() &&
@@ -80,12 +103,14 @@ public class FileConverter {
 
     /**
      * Build a composition compatible xml string from midi
+     * @param sequence the midi to convert
+     * @param tempo the tempo of the composition
      * @return builtXML
      * @throws InvalidMidiDataException
      * @throws IOException
      */
-    public String midiToString() {
-        String builtXML = "";
+    public static String midiToString(Sequence sequence, int tempo) {
+        StringBuilder builtXML = new StringBuilder();
         int maxTick = 0;
         ArrayList<ArrayList<MidiEvent>> onEvents = new ArrayList();
 
@@ -108,19 +133,19 @@ public class FileConverter {
                         else { //some midifiles just set the note_on with volume 0 as off
                             MidiEvent onEvent = getAssociatedOnMessage(on, sm);
                             if (onEvent != null) {
-                                builtXML += createNoteString(onEvent, event);
+                                builtXML.append(createNoteString(sequence, tempo, onEvent, event));
                             }
                         }
                     } else if (sm.getCommand() == NOTE_OFF) {
                         MidiEvent onEvent = getAssociatedOnMessage(on, sm);
                         if (onEvent != null) {
-                            builtXML += createNoteString(onEvent, event);
+                            builtXML.append(createNoteString(sequence, tempo, onEvent, event));
                         }
                     }
                 }
             }
         }
-        return builtXML;
+        return builtXML.toString();
     }
 }
 
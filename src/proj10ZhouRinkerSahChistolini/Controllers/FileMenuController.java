@@ -11,19 +11,43 @@
 package proj10ZhouRinkerSahChistolini.Controllers;
 
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonBar;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.xml.sax.SAXException;
+import proj10ZhouRinkerSahChistolini.Models.BackgroundExecutor;
+import proj10ZhouRinkerSahChistolini.Models.CompositionSnapshot;
+import proj10ZhouRinkerSahChistolini.Models.CompositionWriter;
+import proj10ZhouRinkerSahChistolini.Models.Instrument;
+import proj10ZhouRinkerSahChistolini.Models.SequencerService;
+import proj10ZhouRinkerSahChistolini.Models.StemRenderer;
+import proj10ZhouRinkerSahChistolini.Models.WavRenderer;
 
-import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiSystem;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.sound.midi.Sequence;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 
 /**
  * This class handles all of the MenuItems associated
@@ -75,6 +99,7 @@ public class FileMenuController {
     public void cleanUpOnExit() {
         this.compositionPanelController.stopComposition();
         if(!handleUnsavedChanges()) { return; }
+        SequencerService.getInstance().close();
         Platform.exit();
         System.exit(0);
     }
@@ -116,23 +141,26 @@ public class FileMenuController {
         if(temp == null) {//If the user cancels
             return;
         }
-        try {
-            String lines = readFile(temp);
-            this.compositionPanelController.reset();
-            try {
-                this.XMLHandler.loadNotesFromXML(lines);
-            } catch (SAXException e) {
-                this.errorAlert("Error Parsing File", "Malformed XML File");
-            } catch (ParserConfigurationException e) {
-                return;
+        //read and parse in the background, the composition is only
+        //replaced once the whole file has been read
+        long length = temp.length();
+        Task<CompositionSnapshot> task = new Task<CompositionSnapshot>() {
+            @Override
+            protected CompositionSnapshot call() throws Exception {
+                updateMessage("Reading " + temp.getName());
+                return XMLHandler.parseXML(temp, read -> updateProgress(read, length),
+                                           this::isCancelled);
             }
-            this.currentOpenFile = temp;
-        }
-        catch(IOException x){
-            errorAlert("File Could Not Be Read", x.getMessage());
-            return;
-        }
-        this.compositionPanelController.getActionController().saveList();
+        };
+        this.runInBackground("Opening " + temp.getName(), "File Could Not Be Read", task,
+                (snapshot, done) -> {
+                    this.compositionPanelController.reset();
+                    this.XMLHandler.addToComposition(snapshot, () -> {
+                        this.currentOpenFile = temp;
+                        this.compositionPanelController.getActionController().saveList();
+                        done.run();
+                    });
+                });
     }
 
     /**
@@ -142,34 +170,65 @@ public class FileMenuController {
     public void saveAs() {
         this.compositionPanelController.stopComposition();
         //Setup a temporary variable to protect an accidental overwrite
+        this.saveDocumentAs();
+    }
+
+    /**
+     * asks for a file and saves the composition to it
+     * @return whether the composition was saved
+     */
+    private boolean saveDocumentAs() {
         File temp = this.chooser.showSaveDialog(new Stage());
         if(temp == null) {//If the user cancels
-            return;
+            return false;
         } else {
             this.currentOpenFile = temp;
         }
-        this.writeFile(XMLHandler.createXML(
-                this.compositionPanelController.getNotesfromComposition()),
-                this.currentOpenFile
-        );
-        this.compositionPanelController.getActionController().saveList();
+        return this.writeFile(this.currentOpenFile);
     }
 
     /**
-     * Write content to a file
-     * @param contentToWrite String to write
+     * Write the composition to a file. The notes are copied here, on the
+     * FX thread, and the copy is written in the background to a
+     * temporary file which then replaces the destination, so cancelling
+     * or failing part way leaves the destination as it was.
      * @param file destination file
+     * @return whether the file was written
      */
-    @FXML
-    private void writeFile(String contentToWrite, File file){
-        try {
-            FileWriter fileWriter = new FileWriter(file);
-            fileWriter.write(contentToWrite);
-            fileWriter.close();
-        }
-        catch (IOException ex) {
-            errorAlert("File Could not be Written", ex.getMessage());
-        }
+    private boolean writeFile(File file){
+        CompositionSnapshot snapshot = CompositionSnapshot.of(
+                this.compositionPanelController.getNotesfromComposition());
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Writing " + snapshot.getNoteCount() + " notes");
+                File part = new File(file.getPath() + ".part");
+                try {
+                    try (CompositionWriter writer = new CompositionWriter(FileChannel.open(
+                            part.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                        snapshot.writeXML(writer, written -> {
+                            if (isCancelled()) {
+                                throw new CancellationException();
+                            }
+                            updateProgress(written, snapshot.getNoteCount());
+                        });
+                    }
+                    if (!isCancelled()) {
+                        Files.move(part.toPath(), file.toPath(),
+                                   StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    part.delete();
+                }
+                return null;
+            }
+        };
+        return this.runInBackground("Saving " + file.getName(), "File could not be Written", task,
+                (nothing, done) -> {
+                    this.compositionPanelController.getActionController().saveList();
+                    done.run();
+                });
     }
 
     /**
@@ -177,17 +236,20 @@ public class FileMenuController {
      */
     @FXML
     public void save() {
+        this.saveDocument();
+    }
+
+    /**
+     * Save current state of composition to the open file, or to a
+     * chosen file if none is open
+     * @return whether the composition was saved
+     */
+    private boolean saveDocument() {
         this.compositionPanelController.stopComposition();
         if (this.currentOpenFile == null) {
-            this.saveAs();
-        }
-        else {
-            this.writeFile(XMLHandler.createXML(
-                    this.compositionPanelController.getNotesfromComposition()),
-                    this.currentOpenFile
-            );
+            return this.saveDocumentAs();
         }
-        this.compositionPanelController.getActionController().saveList();
+        return this.writeFile(this.currentOpenFile);
     }
 
     /**
@@ -228,7 +290,9 @@ public class FileMenuController {
             switch(result) {
                 //user selected save changes
                 case 1:
-                    save();
+                    if (!saveDocument()) {
+                        return false;
+                    }
                     //user did not select a button
                 case 0:
                     break;
@@ -248,17 +312,14 @@ public class FileMenuController {
      * @returns lines a String representation of the file
      */
     public String readFile(File file) throws IOException{
-        String lines = "";
-
-            BufferedReader br = new BufferedReader(new FileReader(file));
+        StringBuilder lines = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, file.length()));
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line =  br.readLine()) != null){
-                lines += line + "\n";
+                lines.append(line).append('\n');
             }
-            br.close();
-
-
-        return lines;
+        }
+        return lines.toString();
     }
 
     @FXML
@@ -275,15 +336,17 @@ public class FileMenuController {
         if(temp == null) {//If the user cancels
             return;
         }
-        try {
-            this.fileConverter.importMidi(temp);
-        }
-        catch(IOException | InvalidMidiDataException x){
-            errorAlert("File Could Not Be Read", x.getMessage());
-        }
-        catch (SAXException | ParserConfigurationException e) {
-            this.errorAlert("Error Parsing File", "Malformed XML created");
-        }
+        FileConverter converter = this.fileConverter;
+        int tempo = this.compositionPanelController.getCompositionTempo();
+        Task<CompositionSnapshot> task = new Task<CompositionSnapshot>() {
+            @Override
+            protected CompositionSnapshot call() throws Exception {
+                updateMessage("Reading " + temp.getName());
+                return converter.readMidi(temp, tempo, this::isCancelled);
+            }
+        };
+        this.runInBackground("Importing " + temp.getName(), "File Could Not Be Read", task,
+                (snapshot, done) -> this.XMLHandler.addToComposition(snapshot, done));
     }
 
     @FXML
@@ -299,12 +362,165 @@ public class FileMenuController {
         if(temp == null) {//If the user cancels
             return;
         }
-        try {
-            MidiSystem.write(this.compositionPanelController.getSequence(), 1, temp);
+        //taken on the FX thread, later edits never change this sequence
+        Sequence sequence = this.compositionPanelController.getSequence();
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Writing " + temp.getName());
+                MidiSystem.write(sequence, 1, temp);
+                return null;
+            }
+        };
+        this.runInBackground("Exporting " + temp.getName(), "Export Error", task,
+                (nothing, done) -> done.run());
+    }
+
+    @FXML
+    private void exportWav(){
+        this.compositionPanelController.stopComposition();
+        FileChooser filer = new FileChooser();
+        filer.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("16 bit wave files(*.wav)", "*.wav"),
+                new FileChooser.ExtensionFilter("24 bit wave files(*.wav)", "*.wav")
+        );
+        File temp = filer.showSaveDialog(new Stage());
+        if(temp == null) {//If the user cancels
+            return;
+        }
+        int sampleBits = filer.getSelectedExtensionFilter() == filer.getExtensionFilters().get(1)
+                ? 24 : 16;
+        //taken on the FX thread, later edits never change this sequence
+        Sequence sequence = this.compositionPanelController.getSequence();
+        int tempo = this.compositionPanelController.getComposition().getTempo();
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Rendering " + temp.getName());
+                new WavRenderer(sampleBits).render(sequence, tempo, temp);
+                return null;
+            }
+        };
+        this.runInBackground("Exporting " + temp.getName(), "Export Error", task,
+                (nothing, done) -> done.run());
+    }
+
+    /**
+     * Export the composition as one 16 bit wave file per instrument,
+     * named after the instrument, and a master.wav mixing all of them,
+     * into a chosen directory
+     */
+    @FXML
+    private void exportStems(){
+        this.compositionPanelController.stopComposition();
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Export Stems");
+        File directory = chooser.showDialog(new Stage());
+        if(directory == null) {//If the user cancels
+            return;
         }
-        catch (IOException e){
-            errorAlert("Export Error", "Faulty sequence");
+        //instruments may share a channel, so each stem is named by its program too
+        Map<Integer, String> names = new HashMap<>();
+        for (Instrument instrument : this.compositionPanelController
+                .getInstrumentPanelController().getInstruments()) {
+            names.put(StemRenderer.stemKey(instrument.getChannel(), instrument.getValue()),
+                      instrument.getName().replaceAll("[^A-Za-z0-9_-]", "_"));
+        }
+        //taken on the FX thread, later edits never change this sequence
+        Sequence sequence = this.compositionPanelController.getSequence();
+        int tempo = this.compositionPanelController.getComposition().getTempo();
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Rendering stems");
+                new StemRenderer(16).render(
+                        sequence, tempo, directory,
+                        stem -> names.getOrDefault(stem,
+                                "channel" + StemRenderer.channelOf(stem)
+                                + "_program" + StemRenderer.programOf(stem)),
+                        new File(directory, "master.wav")
+                );
+                return null;
+            }
+        };
+        this.runInBackground("Exporting Stems", "Export Error", task,
+                (nothing, done) -> done.run());
+    }
+
+    /**
+     * Runs a task on the background executor behind a progress dialog
+     * with a Cancel button, then hands its result to apply on the FX
+     * thread. The dialog is modal, so the composition cannot be edited
+     * while the task works from it, but the window keeps drawing and
+     * this returns only once everything is done, failed or cancelled.
+     * Cancelling interrupts the task's thread.
+     * @param title the title of the dialog
+     * @param errorType the title of the alert shown if the task fails
+     * @param task the work to run off the FX thread
+     * @param apply called on the FX thread with the result and a
+     *              method to call once the result has been applied
+     * @return whether the task succeeded and its result was applied
+     */
+    private <T> boolean runInBackground(String title, String errorType, Task<T> task,
+                                        BiConsumer<T, Runnable> apply) {
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle(title);
+        dialog.setHeaderText(title);
+        Label message = new Label();
+        message.textProperty().bind(task.messageProperty());
+        ProgressBar bar = new ProgressBar();
+        bar.setPrefWidth(300);
+        bar.progressProperty().bind(task.progressProperty());
+        dialog.getDialogPane().setContent(new VBox(8, message, bar));
+        dialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+
+        //once the result is being applied it is too late to cancel
+        BooleanProperty applying = new SimpleBooleanProperty(false);
+        boolean[] finished = {false};
+        dialog.getDialogPane().lookupButton(ButtonType.CANCEL).disableProperty().bind(applying);
+        dialog.setOnCloseRequest(event -> {
+            if (applying.get() && !finished[0]) {
+                event.consume();
+            } else {
+                task.cancel();
+            }
+        });
+        Runnable close = () -> {
+            finished[0] = true;
+            dialog.close();
+        };
+        task.setOnSucceeded(event -> {
+            applying.set(true);
+            message.textProperty().unbind();
+            message.setText("Updating the composition");
+            bar.progressProperty().unbind();
+            bar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+            try {
+                apply.accept(task.getValue(), close);
+            } catch (RuntimeException e) {
+                close.run();
+                throw e;
+            }
+        });
+        task.setOnFailed(event -> {
+            close.run();
+            Throwable e = task.getException();
+            if (e instanceof SAXException) {
+                this.errorAlert("Error Parsing File", "Malformed XML File");
+            } else {
+                this.errorAlert(errorType, (e.getMessage() != null) ? e.getMessage() : e.toString());
+            }
+        });
+        task.setOnCancelled(event -> close.run());
+
+        try {
+            BackgroundExecutor.getInstance().execute(task);
+        } catch (RejectedExecutionException e) {
+            this.errorAlert(errorType, "Too many files are being processed, try again shortly");
+            return false;
         }
+        dialog.showAndWait();
+        return task.getState() == Worker.State.SUCCEEDED && finished[0];
     }
 
     /**
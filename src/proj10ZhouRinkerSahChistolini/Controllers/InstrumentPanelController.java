@@ -5,6 +5,7 @@ import javafx.scene.control.RadioButton;
 import javafx.scene.layout.VBox;
 import javafx.scene.control.ToggleGroup;
 import proj10ZhouRinkerSahChistolini.Models.Instrument;
+import proj10ZhouRinkerSahChistolini.Models.InstrumentRegistry;
 
 import java.util.*;
 
@@ -22,6 +23,8 @@ public class InstrumentPanelController {
     private VBox instrumentBox;
     /**List of instruments*/
     private List<Instrument> instruments;
+    /** lookup tables over the instruments */
+    private InstrumentRegistry registry = new InstrumentRegistry();
     /** List of style classes associated with the instruments */
     private List<String> styleList;
     /**Toggle group to handle selection*/
@@ -80,15 +83,18 @@ public class InstrumentPanelController {
                               String styleClass,
                               int id
     ){
-        this.instruments.add(new Instrument(name, instrument, channel, id));
-        RadioButton instrButton = new RadioButton(name);
-        instrButton.getStyleClass().add("instrument-button");
-        instrButton.getStyleClass().add(styleClass);
-        instrButton.setToggleGroup(this.instrumentToggle);
-        this.instrumentBox.getChildren().add(instrButton);
+        this.addInstrument(new Instrument(name, instrument, channel, id), styleClass);
     }
 
     public void addInstrument(Instrument inst, String styleClass) {
+        this.addInstrumentButton(inst, styleClass);
+        this.registry.setInstruments(this.instruments);
+    }
+
+    /**
+     * Adds an instrument and its radio button without updating the registry
+     */
+    private void addInstrumentButton(Instrument inst, String styleClass) {
         this.instruments.add(inst);
         RadioButton instrButton = new RadioButton(inst.getName());
         instrButton.getStyleClass().add("instrument-button");
@@ -97,19 +103,18 @@ public class InstrumentPanelController {
         this.instrumentBox.getChildren().add(instrButton);
     }
 
+    /** accessor method for the instrument registry */
+    public InstrumentRegistry getRegistry() {return this.registry;}
+
     /**
      * Returns the currently selected instrument's id
      * @return instrument id
      */
     public int getSelectedInstrument(){
         RadioButton chk = (RadioButton) this.instrumentToggle.getSelectedToggle();
-        String name = chk.getText();
-        Instrument selected = this.instruments.get(0);
-        for (Instrument instrument: this.instruments){
-            if (instrument.getName().equals(name)){
-                selected = instrument;
-                break;
-            }
+        Instrument selected = this.registry.getByName(chk.getText());
+        if (selected == null) {
+            selected = this.instruments.get(0);
         }
         return selected.getValue();
     }
@@ -119,12 +124,15 @@ public class InstrumentPanelController {
      * it has been initialized
      */
     public Instrument getInstrument(int value) {
-        for (Instrument i : this.instruments) {
-            if (i.getValue() == value) {
-                return i;
-            }
-        }
-        return null;
+        return this.registry.getByValue(value);
+    }
+
+    /**
+     * Returns the position in the panel of the instrument with the
+     * associated value, or -1 if there is none
+     */
+    public int getInstrumentIndex(int value) {
+        return this.registry.indexOfValue(value);
     }
 
     /**
@@ -134,12 +142,7 @@ public class InstrumentPanelController {
      * @return
      */
     public boolean contains(int pitch){
-        for (Instrument instrument : this.instruments) {
-            if (instrument.getValue() == pitch) {
-                return true;
-            }
-        }
-        return false;
+        return this.registry.getByValue(pitch) != null;
     }
 
     /**
@@ -162,12 +165,8 @@ public class InstrumentPanelController {
      * @return int value of instrument, default instruent is piano if none found
      */
     public int getInstrumentValues(String instrumentName){
-        for (Instrument i : this.instruments){
-            if( i.getName().equals(instrumentName)){
-                return i.getValue();
-            }
-        }
-        return 0;
+        Instrument instrument = this.registry.getByName(instrumentName);
+        return (instrument == null) ? 0 : instrument.getValue();
     }
 
     /**
@@ -189,14 +188,16 @@ public class InstrumentPanelController {
             inst = instruments.get(i);
             styleClass = styleClasses.get(i) + "-inst";
             if(!styleClass.equals("-inst")) {
-                addInstrument(inst, styleClass);
+                addInstrumentButton(inst, styleClass);
                 this.styleList.add(styleClass);
             } else {
-                addInstrument(inst, oldStyles.get(i));
+                addInstrumentButton(inst, oldStyles.get(i));
                 this.styleList.add(oldStyles.get(i));
             }
             inst.setId(i);
         }
+        //swap in the new mapping in one step
+        this.registry.setInstruments(this.instruments);
         this.instrumentToggle.getToggles().get(0).setSelected(true);
     }
 }
@@ -25,7 +25,6 @@ import proj10ZhouRinkerSahChistolini.Views.SelectableRectangle;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 import proj10ZhouRinkerSahChistolini.Models.Note;
 
 /**
@@ -237,17 +236,9 @@ public class PropertyPanelController {
             this.compositionPanelController.addAction(new
 
         ChangeInstrumentAction(this.compositionPanelController, before, text));
-            before.forEach(n->
-            {
-                 n.setInstrument(
-                    this.compositionPanelController.getInstrumentPanelController().getInstruments()
-                        .stream()
-                        .filter(
-                                i -> i.getName().equals(text)
-                        ).collect(Collectors.toList()).get(0).getValue()
-                 );
-
-            });
+        int value = this.compositionPanelController.getInstrumentPanelController()
+                .getInstrumentValues(text);
+        before.forEach(n -> n.setInstrument(value));
         this.currentIntrument = text;
     }
 
@@ -257,7 +248,7 @@ public class PropertyPanelController {
     private void setPropertyBarVisibility(){
 
         BooleanBinding selectedNotesBinding = Bindings.createBooleanBinding(() ->
-                        this.compositionPanelController.getSelectedRectangles().size() > 0,
+                        this.compositionPanelController.getSelectedRectangleCount() > 0,
                 this.compositionPanelController.getActionController().getUndoActionsProperty()
         );
 
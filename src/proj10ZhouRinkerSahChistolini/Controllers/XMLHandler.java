@@ -1,11 +1,12 @@
 package proj10ZhouRinkerSahChistolini.Controllers;
 
+import javafx.application.Platform;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
-import proj10ZhouRinkerSahChistolini.Models.Gesture;
-import proj10ZhouRinkerSahChistolini.Models.Note;
+import proj10ZhouRinkerSahChistolini.Models.CompositionSnapshot;
+import proj10ZhouRinkerSahChistolini.Models.CompositionWriter;
 import proj10ZhouRinkerSahChistolini.Models.Playable;
 import proj10ZhouRinkerSahChistolini.Views.GroupRectangle;
 import proj10ZhouRinkerSahChistolini.Views.NoteRectangle;
@@ -14,11 +15,19 @@ import proj10ZhouRinkerSahChistolini.Views.SelectableRectangle;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Stack;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
 
 import static java.lang.Integer.max;
 import static java.lang.Integer.min;
@@ -27,6 +36,10 @@ import static java.lang.Integer.min;
  * Created by Alex on 11/17/16.
  */
 public class XMLHandler {
+    /** the number of top level items added to the composition per pulse */
+    private static final int BATCH_SIZE = 500;
+    /** the size of the buffer files are read through */
+    private static final int BUFFER_BYTES = 1 << 16;
 
     /** a reference to the composition controller*/
     private CompositionPanelController compController;
@@ -45,27 +58,134 @@ public class XMLHandler {
      */
     public void loadNotesFromXML(String xmlString)
             throws SAXException, ParserConfigurationException, IOException {
+        this.addToComposition(parseXML(new StringReader(xmlString), () -> false));
+    }
+
+    /**
+     * Reads a composition without creating any notes or rectangles, so
+     * it can be called on any thread
+     * @param reader the XML to read
+     * @param cancelled checked at every element, parsing stops with a
+     *                  SAXException once it returns true
+     * @return the notes and gestures read
+     */
+    public static CompositionSnapshot parseXML(Reader reader, BooleanSupplier cancelled)
+            throws SAXException, ParserConfigurationException, IOException {
+        return parseXML(new InputSource(reader), cancelled);
+    }
+
+    /**
+     * Reads a composition file without creating any notes or rectangles,
+     * so it can be called on any thread. The file is streamed through a
+     * buffer straight into the parser, so it is read once, in linear
+     * time, and never held in memory as a whole.
+     * @param file the file to read
+     * @param progress called with the number of bytes read so far
+     * @param cancelled checked at every element, parsing stops with a
+     *                  SAXException once it returns true
+     * @return the notes and gestures read
+     */
+    public static CompositionSnapshot parseXML(File file, LongConsumer progress,
+                                               BooleanSupplier cancelled)
+            throws SAXException, ParserConfigurationException, IOException {
+        try (InputStream input = new BufferedInputStream(
+                new ProgressInputStream(new FileInputStream(file), progress), BUFFER_BYTES)) {
+            InputSource source = new InputSource(input);
+            source.setSystemId(file.toURI().toString());
+            return parseXML(source, cancelled);
+        }
+    }
+
+    /** parses the source into a snapshot */
+    private static CompositionSnapshot parseXML(InputSource source, BooleanSupplier cancelled)
+            throws SAXException, ParserConfigurationException, IOException {
         SAXParserFactory parserFactory = SAXParserFactory.newInstance();
         parserFactory.setValidating(true);
         SAXParser parser = parserFactory.newSAXParser();
 
-        SAXNoteHandler handler = new SAXNoteHandler();
-        parser.parse(new InputSource(new StringReader(xmlString)), handler);
-        addToComposition(handler);
+        SAXNoteHandler handler = new SAXNoteHandler(cancelled);
+        parser.parse(source, handler);
+        return handler.snapshot;
     }
 
     /**
      * adds notes to the composition based on the input
-     * Handler's data
+     * snapshot's data
      */
-    private void addToComposition(SAXNoteHandler handler) {
-        //populate composition panel
-        if (compController.getWidth() < handler.maxWidth){
-            compController.setWidth(handler.maxWidth);
+    public void addToComposition(CompositionSnapshot snapshot) {
+        this.widenFor(snapshot);
+        this.addElements(snapshot.getElements());
+    }
+
+    /**
+     * Adds the notes of a snapshot to the composition a few hundred top
+     * level items at a time, each batch in its own pulse, so the window
+     * keeps drawing and responding while a large file is added. Must be
+     * called on the FX thread.
+     * @param snapshot the notes and gestures to add
+     * @param onDone called once every item has been added
+     */
+    public void addToComposition(CompositionSnapshot snapshot, Runnable onDone) {
+        this.widenFor(snapshot);
+        this.addBatch(snapshot.getElements(), 0, onDone);
+    }
+
+    /** adds the batch starting at the given item and queues the next one */
+    private void addBatch(List<CompositionSnapshot.Element> elements, int from,
+                          Runnable onDone) {
+        int to = Math.min(elements.size(), from + BATCH_SIZE);
+        this.addElements(elements.subList(from, to));
+        if (to == elements.size()) {
+            onDone.run();
+        } else {
+            Platform.runLater(() -> this.addBatch(elements, to, onDone));
+        }
+    }
+
+    /** widens the composition panel to fit the snapshot */
+    private void widenFor(CompositionSnapshot snapshot) {
+        if (compController.getWidth() < snapshot.getRightX()){
+            compController.setWidth(snapshot.getRightX());
             compController.drawLines();
         }
-        this.compController.populateCompositionPanel(handler.pStack.peek());
-        handler.notesStack.peek().forEach(n -> this.compController.addNoteToComposition(n));
+    }
+
+    /** creates the rectangles and notes of the items and adds them */
+    private void addElements(Collection<CompositionSnapshot.Element> elements) {
+        Collection<SelectableRectangle> rectangles = new ArrayList<>();
+        Collection<Playable> notes = new ArrayList<>();
+        for (CompositionSnapshot.Element element : elements) {
+            this.create(element, rectangles, notes);
+        }
+        //populate composition panel
+        this.compController.populateCompositionPanel(rectangles);
+        notes.forEach(n -> this.compController.addNoteToComposition(n));
+    }
+
+    /**
+     * creates the rectangle and note of an item, and of the items under
+     * it for a gesture, adding them to the given collections
+     */
+    private void create(CompositionSnapshot.Element element,
+                        Collection<SelectableRectangle> rectangles,
+                        Collection<Playable> notes) {
+        if (element.isGesture()) {
+            Collection<SelectableRectangle> childRectangles = new ArrayList<>();
+            Collection<Playable> childNotes = new ArrayList<>();
+            for (CompositionSnapshot.Element child : element.getChildren()) {
+                this.create(child, childRectangles, childNotes);
+            }
+            GroupRectangle temp = compController.createGroupRectangle(childRectangles);
+            notes.add(compController.createGesture(temp, childNotes));
+            rectangles.add(temp);
+        } else {
+            NoteRectangle rec = compController.getClickInPanelHandler()
+                    .addNoteRectangle(element.getX(), element.getY(),
+                                      element.getInstrument(), element.getWidth());
+            notes.add(compController.getClickInPanelHandler().createBoundNote(
+                    rec, rec.getInstrument(), max(0, min(127, element.getVolume()))));
+            rectangles.add(rec);
+        }
     }
 
     /**
@@ -74,36 +194,59 @@ public class XMLHandler {
      * @return
      */
     public static String createXML(Collection<Playable> recs) {
-        String mainString = "";
+        return CompositionWriter.toXML(recs);
+    }
+
+    /**
+     * Reads from a stream, reporting the number of bytes read
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+        /** called with the total read after every read */
+        private LongConsumer progress;
+        /** the number of bytes read */
+        private long count;
+
+        ProgressInputStream(InputStream input, LongConsumer progress) {
+            super(input);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.progress.accept(++this.count);
+            }
+            return b;
+        }
 
-        for (Playable sr : recs) {
-            mainString += sr.toXML(1);
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                this.count += read;
+                this.progress.accept(this.count);
+            }
+            return read;
         }
-        return "<Composition>\n" + mainString + "</Composition>\n";
     }
 
     /**
      * The SAX event handler which handles parsing through
      * our saved note strings
      */
-    private class SAXNoteHandler extends DefaultHandler {
-        /** Stack to hold pointers to rectangles to assist in creation of groups*/
-
-        private Stack<Collection<SelectableRectangle>> pStack;
-        private Stack<Collection<Playable>> notesStack;
-        /** Maximum size of the composition*/
-        private int maxWidth;
+    private static class SAXNoteHandler extends DefaultHandler {
+        /** the notes and gestures read so far */
+        private CompositionSnapshot snapshot;
+        /** whether to stop parsing */
+        private BooleanSupplier cancelled;
 
         /**
          * initializer for SAXNoteHandler
          */
-        public SAXNoteHandler(){
-            this.pStack = new Stack<>();
-            this.notesStack = new Stack<>();
-            //populate the stack with an initial list
-            this.pStack.push(new ArrayList<>());
-            this.notesStack.push(new ArrayList<>());
-            this.maxWidth = 0;
+        public SAXNoteHandler(BooleanSupplier cancelled){
+            this.snapshot = new CompositionSnapshot();
+            this.cancelled = cancelled;
         }
 
         @Override
@@ -111,27 +254,21 @@ public class XMLHandler {
         public void startElement(String uri, String localName,
                                  String qName, Attributes attributes)
                 throws SAXException {
-
+            if (this.cancelled.getAsBoolean()) {
+                throw new SAXException("Loading was cancelled");
+            }
             switch (qName) {
                 case "Note":
-                    int width = (int)Double.parseDouble(attributes.getValue("width"));
-                    NoteRectangle rec = compController.getClickInPanelHandler()
-                            .addNoteRectangle(
-                                    Double.parseDouble(attributes.getValue("xpos")),
-                                    Double.parseDouble(attributes.getValue("ypos")),
-                                    Integer.parseInt(attributes.getValue("instValue")),
-                                    width
-                            );
-                    Note note = compController.getClickInPanelHandler().createBoundNote(
-                            rec, rec.getInstrument(), max(0, min(127,Integer.parseInt(attributes.getValue("volume")))));
-                    this.notesStack.peek().add(note);
-
-                    this.pStack.peek().add(rec);
-                    this.maxWidth = max(this.maxWidth,(int) note.getRightX());
+                    this.snapshot.addNote(
+                            Double.parseDouble(attributes.getValue("xpos")),
+                            Double.parseDouble(attributes.getValue("ypos")),
+                            (int)Double.parseDouble(attributes.getValue("width")),
+                            Integer.parseInt(attributes.getValue("instValue")),
+                            Integer.parseInt(attributes.getValue("volume"))
+                    );
                     break;
                 case "Gesture":
-                    pStack.push(new ArrayList<>());
-                    notesStack.push(new ArrayList<>());
+                    this.snapshot.beginGesture();
             }
         }
 
@@ -144,12 +281,7 @@ public class XMLHandler {
                 case "Note":
                     break;
                 case "Gesture":
-                    if(!this.pStack.peek().isEmpty()) {
-                        GroupRectangle temp = compController.createGroupRectangle(this.pStack.pop());
-                        Gesture modelTemp = compController.createGesture(temp, notesStack.pop());
-                        this.notesStack.peek().add(modelTemp);
-                        this.pStack.peek().add(temp);
-                    }
+                    this.snapshot.endGesture();
             }
         }
     }
@@ -16,6 +16,7 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
+import proj10ZhouRinkerSahChistolini.Models.SequencerService;
 
 /* Main class that initializes and starts our javafx application */
 public class Main extends Application {
@@ -36,10 +37,21 @@ public class Main extends Application {
         Scene scene = new Scene(root, 610, 435);
 
         primaryStage.setScene(scene);
-        primaryStage.setOnCloseRequest(e -> System.exit(0));
+        primaryStage.setOnCloseRequest(e -> {
+            SequencerService.getInstance().close();
+            System.exit(0);
+        });
         primaryStage.show();
     }
 
+    /**
+     * Releases the midi devices when the application stops
+     */
+    @Override
+    public void stop() {
+        SequencerService.getInstance().close();
+    }
+
 
     public static void main(String[] args) {
         launch(args);
@@ -0,0 +1,90 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.SourceDataLine;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Reaches the audio methods of the synthesizer Java Sound provides,
+ * which opens on a chosen audio line or as a stream of samples. Those
+ * methods are only declared by a class internal to the runtime, so
+ * they are looked up by reflection on a synthesizer returned by
+ * MidiSystem.getSynthesizer() rather than compiled against.
+ */
+public class AudioSynthesizers {
+
+    private AudioSynthesizers() {
+    }
+
+    /**
+     * Opens a synthesizer on the default audio line with the given
+     * options, such as "latency", or plainly if it cannot take them
+     * @param synthesizer the synthesizer to open
+     * @param info the options of the audio line
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     */
+    public static void open(Synthesizer synthesizer, Map<String, Object> info)
+            throws MidiUnavailableException {
+        try {
+            Method open = synthesizer.getClass().getMethod("open", SourceDataLine.class, Map.class);
+            invoke(open, synthesizer, null, info);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            synthesizer.open();
+        }
+    }
+
+    /**
+     * Opens a synthesizer as a stream of samples rather than on an
+     * audio line, so it plays as fast as the stream is read
+     * @param synthesizer the synthesizer to open
+     * @param format the format of the samples
+     * @return the stream of samples
+     * @throws MidiUnavailableException if the synthesizer cannot be
+     *                                  opened as a stream
+     */
+    public static AudioInputStream openStream(Synthesizer synthesizer, AudioFormat format)
+            throws MidiUnavailableException {
+        try {
+            Method openStream = synthesizer.getClass().getMethod("openStream",
+                                                                 AudioFormat.class, Map.class);
+            return (AudioInputStream) invoke(openStream, synthesizer, format, null);
+        } catch (NoSuchMethodException e) {
+            throw unavailable(synthesizer, "", e);
+        } catch (IllegalAccessException e) {
+            throw unavailable(synthesizer, ", as this runtime hides the method; run with "
+                    + "--add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED", e);
+        }
+    }
+
+    /** returns the error for a synthesizer which cannot render to a stream */
+    private static MidiUnavailableException unavailable(Synthesizer synthesizer, String reason,
+                                                        Exception cause) {
+        MidiUnavailableException unavailable = new MidiUnavailableException(
+                "The synthesizer " + synthesizer.getDeviceInfo().getName()
+                + " cannot render to a stream of samples" + reason);
+        unavailable.initCause(cause);
+        return unavailable;
+    }
+
+    /** calls a method of the synthesizer, passing on what it throws */
+    private static Object invoke(Method method, Synthesizer synthesizer, Object... args)
+            throws MidiUnavailableException, IllegalAccessException {
+        try {
+            return method.invoke(synthesizer, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MidiUnavailableException) {
+                throw (MidiUnavailableException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the slow work of the application, such as parsing, writing and
+ * rendering files, away from the FX application thread. The pool is
+ * bounded both in threads and in waiting work, and its threads are
+ * daemons, so an unfinished job never keeps the application alive.
+ * Work is normally handed in as a javafx.concurrent.Task, which reports
+ * its progress and result back on the FX thread and can be cancelled.
+ */
+public class BackgroundExecutor {
+    /** the most jobs waiting for a thread */
+    private static final int QUEUE_CAPACITY = 16;
+    /** how long an idle thread is kept */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /** the shared executor */
+    private static final BackgroundExecutor INSTANCE = new BackgroundExecutor(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    /** the threads running the jobs */
+    private ThreadPoolExecutor pool;
+
+    /**
+     * Creates an executor
+     * @param threads the most jobs run at the same time
+     */
+    public BackgroundExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "background-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * returns the shared executor
+     */
+    public static BackgroundExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a job. A javafx.concurrent.Task is passed directly and
+     * cancelled through its own cancel method.
+     * @param job the work to run
+     * @throws RejectedExecutionException if too many jobs are waiting
+     */
+    public void execute(Runnable job) {
+        this.pool.execute(job);
+    }
+
+    /**
+     * returns the number of jobs running or waiting
+     */
+    public int getPendingCount() {
+        return this.pool.getActiveCount() + this.pool.getQueue().size();
+    }
+
+    /**
+     * Interrupts the running jobs and drops the waiting ones
+     */
+    public void shutdown() {
+        this.pool.shutdownNow();
+    }
+}
@@ -11,11 +11,14 @@
 
 package proj10ZhouRinkerSahChistolini.Models;
 
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.beans.value.ChangeListener;
+
 import java.util.*;
+import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Collection;
+import java.util.function.IntConsumer;
 
 /**
  * The central logic for creating and playing back a composition.
@@ -27,53 +30,85 @@ public class Composition {
     /** The tempo in beats per minute */
     private int tempo = 60;
 
+    /** The tempo changes of the composition, starting with tempo at tick 0 */
+    private TempoMap tempoMap;
+
     /** The track on which this composition will be played */
     public static final int TRACK_INDEX = 0;
 
     /** The midiplayer on which this composition will be played */
     private MidiPlayer player;
 
-    /** The notes to build the composition */
-    private HashSet<Playable> notes;
+    /** The values of every note in the composition */
+    private NoteStore store;
+
+    /** The top level notes and gestures of the composition */
+    private PlayableSet notes;
+
+    /** The midi sequence kept in step with the notes */
+    private SequenceSync song;
+
+    /** Builds the sequences of large sections on every core */
+    private ParallelSequenceBuilder builder;
+
+    /** Plays the composition straight from the notes, created when first used */
+    private StreamingPlayer streamer;
+
+    /** Plays previews of notes being edited, created when first used */
+    private NoteAuditioner auditioner;
+
+    /** Whether the whole composition is played by the streamer */
+    private boolean streaming = false;
+
+    /** Whether the midi player holds a section rather than the whole composition */
+    private boolean sectionLoaded = false;
+
+    /** The tick of the composition at which the loaded section starts */
+    private int sectionOffset = 0;
+
+    /** Goes up by one whenever a note, the tempo or the voice limit changes */
+    private long version = 0;
+
+    /** The sequences compiled for playing, by version */
+    private SequenceCache compiled = new SequenceCache();
+
+    /** The timing of playback */
+    private PlaybackStats stats = new PlaybackStats();
+
+    /** The synced sequence last handed to the midi player */
+    private Sequence songSequence;
+
+    /** The sequence whose note on ticks were last read, other than the synced one */
+    private Sequence scannedSequence;
+
+    /** The note on ticks of scannedSequence */
+    private int[] scannedTicks;
+
+    /** The first tick of the loop region, -1 when not looping */
+    private int loopStart = -1;
+
+    /** The tick at which the loop region jumps back to its start */
+    private int loopEnd = -1;
 
     /** Creates a new Composition object with a midiplayer which has
      * 60 beats per minute and 100 ticks per beat*/
     public Composition(){
         player = new MidiPlayer(100,this.tempo);
-        notes = new HashSet<>();
-    }
-    /**
-     * This will add a note to this composition
-     * given a set of note parameters into a midi event
-     * @param startTick the tick at which this note will be played
-     * @param duration how long this note will be played
-     * @param pitch the pitch of the note
-     * @param instrument the instrument with which this note will be played
-     *
-     */
-    public void addNote(int startTick, int duration, int pitch, Instrument instrument, int volume) {
-        this.player.addNote(pitch, volume, startTick,
-                duration, instrument.getChannel(), this.TRACK_INDEX,
-                instrument.getValue());
-    }
-
-    /**
-     * Adds a note to this composition
-     * @param note the note which will be added to the composition
-     */
-    public void addNote(Playable note){
-        addNote(note, 0);
-    }
-
-    public void addNote(Playable note, int offset){
-        if (note instanceof Note) {
-            Note temp = (Note) note;
-            this.addNote(temp.getStartTick() - offset, temp.getDuration(),
-                    temp.getPitch(), temp.getInstrument(), temp.volumeProperty().intValue());
-        }
-        else if(note instanceof Gesture){
-            ((Gesture) note).getChildren().forEach(n -> this.addNote(n, offset));
-        }
+        store = new NoteStore();
+        notes = new PlayableSet();
+        song = new SequenceSync(store, player.getResolution());
+        store.setOnNoteChanged(id -> {
+            version++;
+            song.sync(id);
+        });
+        tempoMap = new TempoMap(player.getResolution(), this.tempo);
+        tempoMap.setOnChanged(() -> {
+            version++;
+            song.syncTempo(tempoMap);
+        });
+        song.syncTempo(tempoMap);
+        SequencerService.getInstance().getTimingReceiver().setStats(stats);
+        builder = new ParallelSequenceBuilder();
     }
 
     /**
@@ -97,12 +132,49 @@ public class Composition {
     }
 
     /**
-     * Constructs a composition from the notes collection
+     * Removes every note from the composition
+     */
+    public void clear(){
+        this.notes.clear();
+        this.store.clear();
+        this.song.reset();
+        this.version++;
+        this.tempoMap.clearChanges();
+    }
+
+    /**
+     * Readies the whole composition for playing. The sequence only
+     * rebuilds the spans of beats holding notes edited since it was
+     * last built, so this mostly hands it to the midi player, unless
+     * the notes go over the voice limit and a copy within the limit has
+     * to be built. Either choice is cached until the composition
+     * changes.
      */
     public void buildSong(){
-        for(Playable note: notes){
-            this.addNote(note);
+        this.sectionLoaded = false;
+        if (this.streaming && !this.isLooping()) {
+            return;
         }
+        Sequence cached = this.compiled.get(this.version, null, 0);
+        if (cached != null) {
+            this.player.setSequence(cached);
+            return;
+        }
+        int voiceLimit = this.builder.getVoiceLimit();
+        if (voiceLimit > 0 && this.analyzePolyphony(Integer.MAX_VALUE).getMaxChannelPeak() > voiceLimit) {
+            //too dense for the synthesizer, build a copy within the budget
+            this.player.clear();
+            BitSet ids = new BitSet();
+            for (int id = this.store.nextLive(0); id >= 0; id = this.store.nextLive(id + 1)) {
+                ids.set(id);
+            }
+            this.player.addNotes(this.builder, this.store, ids, 0, TRACK_INDEX);
+            this.player.addTempoMap(this.tempoMap, 0, TRACK_INDEX);
+        } else {
+            this.songSequence = this.song.getSequence();
+            this.player.setSequence(this.songSequence);
+        }
+        this.compiled.put(this.version, null, 0, this.player.getSequence());
     }
 
     /**
@@ -110,50 +182,275 @@ public class Composition {
      * @param notes
      */
     public void buildSong(Collection<Playable> notes){
-        double minX = notes.stream().min(Comparator.comparing(Playable::getX)).get().getX();
-        for(Playable note: notes){
-            this.addNote(note, (int) minX);
+        this.sectionLoaded = true;
+        BitSet ids = new BitSet();
+        double minX = Double.MAX_VALUE;
+        for (Playable note : notes) {
+            note.forEachNoteId(ids::set);
+            minX = Math.min(minX, note.getX());
+        }
+        this.sectionOffset = (int) minX;
+        Sequence cached = this.compiled.get(this.version, ids, this.sectionOffset);
+        if (cached != null) {
+            this.player.setSequence(cached);
+            return;
         }
+        this.player.clear();
+        this.player.addNotes(this.builder, this.store, ids, this.sectionOffset, TRACK_INDEX);
+        this.player.addTempoMap(this.tempoMap, this.sectionOffset, TRACK_INDEX);
+        this.compiled.put(this.version, ids, this.sectionOffset, this.player.getSequence());
     }
 
     /**
      * plays the current composition
      */
     public void play() {
-        this.player.play();
+        this.play(0);
     }
 
     /**
-     * stops the current composition and clears the midi player
+     * plays the current composition from the given tick. The loaded
+     * sequence is only repositioned, so this takes the same time
+     * wherever it starts.
+     * @param fromTick the tick of the composition to start at
+     */
+    public void play(int fromTick) {
+        boolean looping = this.isLooping() && !this.sectionLoaded;
+        if (this.streaming && !this.sectionLoaded && !looping) {
+            StreamingPlayer streamer = this.getStreamer();
+            if (streamer != null) {
+                streamer.play(fromTick);
+                return;
+            }
+        }
+        if (looping) {
+            this.player.setLoop(this.loopStart, this.loopEnd);
+        } else {
+            this.player.clearLoop();
+        }
+        int offset = this.sectionLoaded ? this.sectionOffset : 0;
+        this.player.setMicrosPerBeat(this.tempoMap.getMicrosPerBeatAt(Math.max(fromTick, offset)));
+        this.stats.arm(this.getNoteOnTicks(offset), Math.max(fromTick, offset),
+                       looping ? this.loopStart : -1, this.loopEnd, this.tempoMap);
+        this.player.play(Math.max(0, fromTick - offset));
+    }
+
+    /**
+     * returns the sorted ticks of the sounding note ons of the sequence
+     * loaded in the midi player, as ticks of the composition. They are
+     * kept by the synced sequence, and read once from any other.
+     * @param offset the tick of the composition the sequence starts at
+     */
+    private int[] getNoteOnTicks(int offset) {
+        Sequence loaded = this.player.getSequence();
+        if (loaded == this.songSequence) {
+            return this.song.getNoteOnTicks();
+        }
+        if (loaded != this.scannedSequence) {
+            this.scannedTicks = PlaybackStats.noteOnTicks(loaded, offset);
+            this.scannedSequence = loaded;
+        }
+        return this.scannedTicks;
+    }
+
+    /**
+     * Sets a region of the composition to loop without end when it is
+     * played. The whole composition is played by the sequencer while a
+     * loop is set.
+     * @param startTick the first tick of the region
+     * @param endTick the tick at which playback jumps back to startTick
+     */
+    public void setLoop(int startTick, int endTick) {
+        if (endTick <= startTick) {
+            this.clearLoop();
+            return;
+        }
+        this.loopStart = Math.max(0, startTick);
+        this.loopEnd = endTick;
+    }
+
+    /**
+     * Plays the composition through once again
+     */
+    public void clearLoop() {
+        this.loopStart = -1;
+        this.loopEnd = -1;
+    }
+
+    /**
+     * returns whether a loop region is set
+     */
+    public boolean isLooping() {
+        return this.loopStart >= 0;
+    }
+
+    /**
+     * returns the first tick of the loop region, -1 when not looping
+     */
+    public int getLoopStart() {
+        return this.loopStart;
+    }
+
+    /**
+     * returns the tick at which the loop region jumps back, -1 when not looping
+     */
+    public int getLoopEnd() {
+        return this.loopEnd;
+    }
+
+    /**
+     * returns the tick of the composition being played, or where
+     * playback last stopped
+     */
+    public int getTickPosition() {
+        if (this.streaming && !this.sectionLoaded && !this.isLooping()
+                && this.streamer != null) {
+            return this.streamer.getTickPosition();
+        }
+        int offset = this.sectionLoaded ? this.sectionOffset : 0;
+        return (int) this.player.getTickPosition() + offset;
+    }
+
+    /**
+     * returns the time of the composition being heard, in microseconds
+     * from its start: the time the sequencer or streaming player has
+     * reached, less the time the synthesizer takes to sound an event
+     */
+    public long getAudibleMicros() {
+        long micros;
+        if (this.streaming && !this.sectionLoaded && !this.isLooping()
+                && this.streamer != null) {
+            micros = this.streamer.getMicrosecondPosition();
+        } else {
+            int offset = this.sectionLoaded ? this.sectionOffset : 0;
+            micros = (long) this.tempoMap.toMicros(offset) + this.player.getMicrosecondPosition();
+        }
+        return micros - SequencerService.getInstance().getLatencyMicros();
+    }
+
+    /**
+     * stops the current composition
      */
     public void stop() {
-        this.player.clear();
         this.player.stop();
+        this.stats.disarm();
+        if (this.streamer != null) {
+            this.streamer.stop();
+        }
+    }
+
+    /**
+     * Chooses how the whole composition is played. The streaming engine
+     * reads the notes a little ahead of the playing position and sends
+     * them straight to the synthesizer, the default engine plays the
+     * synced Sequence with the midi sequencer. Sections and loops are
+     * always played by the sequencer.
+     * @param streaming whether to use the streaming engine
+     */
+    public void setStreaming(boolean streaming) {
+        this.stop();
+        this.streaming = streaming;
+    }
+
+    /**
+     * returns whether the whole composition is played by the streaming engine
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Plays a short preview of a note on the preview channel
+     * @param pitch the pitch of the note (0-127)
+     * @param instrument the instrument of the note (0-127)
+     * @param volume the volume of the note (0-127)
+     */
+    public void audition(int pitch, int instrument, int volume) {
+        if (this.auditioner == null) {
+            try {
+                this.auditioner = new NoteAuditioner();
+            } catch (MidiUnavailableException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        this.auditioner.audition(pitch, instrument, volume);
+    }
+
+    /**
+     * returns the streaming player, creating it if needed, or null
+     * if the synthesizer cannot be opened
+     */
+    private StreamingPlayer getStreamer() {
+        if (this.streamer == null) {
+            try {
+                this.streamer = new StreamingPlayer(this.store,
+                        this.tempoMap);
+            } catch (MidiUnavailableException e) {
+                e.printStackTrace();
+            }
+        }
+        return this.streamer;
     }
 
     /**
      * getter for notes
      * @return
      */
-    public HashSet<Playable> getNotes() {
+    public Set<Playable> getNotes() {
         return notes;
     }
 
+    /**
+     * getter for the store holding the values of the notes
+     * @return the NoteStore of this composition
+     */
+    public NoteStore getNoteStore() {
+        return this.store;
+    }
+
+    /**
+     * returns the tick at which the last note of the composition ends
+     */
+    public int getEndTick() {
+        return this.store.getTimeIndex().maxEnd();
+    }
+
+    /**
+     * Applies the action to the id of every note sounding between the
+     * two ticks, in order of start tick
+     * @param fromTick the first tick of the range
+     * @param toTick the tick after the last tick of the range
+     * @param action the action to apply to each note id
+     */
+    public void forEachNoteOverlapping(int fromTick, int toTick, IntConsumer action) {
+        this.store.getTimeIndex().forEachOverlapping(fromTick, toTick, action);
+    }
+
+    /**
+     * Applies the action to the id of every note starting between the
+     * two ticks, in order of start tick
+     * @param fromTick the first tick of the window
+     * @param toTick the tick after the last tick of the window
+     * @param action the action to apply to each note id
+     */
+    public void forEachNoteStartingIn(int fromTick, int toTick, IntConsumer action) {
+        this.store.getTimeIndex().forEachStartingIn(fromTick, toTick, action);
+    }
 
     /**
      * gets the selected notes from Compostion
      * @return collection of note objects which are selected
      */
     public Collection<Playable> getSelectedCompositionNotes() {
-        HashSet<Playable> selectedNotes = new HashSet<>();
-
-        for (Playable note : notes) {
-            if (note.selectedProperty().getValue()) {
-                selectedNotes.add(note);
-            }
-        }
+        return new HashSet<>(this.notes.selected);
+    }
 
-        return selectedNotes;
+    /**
+     * returns the selection state of the notes in the composition
+     */
+    public NoteSelection getSelection() {
+        return this.store.getSelection();
     }
 
     /**
@@ -178,11 +475,29 @@ public class Composition {
         this.volume = volume;
     }
 
+    /**
+     * returns the average number of midi events per note in the
+     * sequence of the whole composition
+     */
+    public double getEventsPerNote() {
+        return this.song.getEventsPerNote();
+    }
+
+    /**
+     * returns the number of program changes in the sequence of the
+     * whole composition
+     */
+    public int getProgramChangeCount() {
+        return this.song.getProgramChangeCount();
+    }
+
+    /**
+     * returns the midi sequence of the whole composition. Later edits go
+     * into a new sequence, so the one returned can be read on another
+     * thread.
+     */
     public Sequence getSequence(){
-        this.buildSong();
-        Sequence clone = this.player.getSequence();
-        this.stop();
-        return clone;
+        return this.song.getSequence();
     }
     /**
      * sets teh default tempo
@@ -190,30 +505,195 @@ public class Composition {
      */
     public void setTempo(int tempo) {
         this.tempo = tempo;
-        this.player = new MidiPlayer(100, tempo);
+        this.changeTempo(() -> this.tempoMap.setTempo(tempo));
     }
 
+    /**
+     * Changes the tempo from the given tick on, until the next change
+     * @param tick the tick of the change
+     * @param tempo the number of beats per minute
+     */
+    public void setTempo(int tick, int tempo) {
+        if (tick == 0) {
+            this.tempo = tempo;
+        }
+        this.changeTempo(() -> this.tempoMap.setTempo(tick, tempo));
+    }
 
-    public List<Note> getSelectedNotes(){
-        List<Note> temp = new ArrayList<>();
-        for(Playable playable : this.notes){
-            temp.addAll( this.nestNotes(playable));
+    /**
+     * Removes the tempo change at the given tick
+     * @param tick the tick of the change
+     */
+    public void removeTempo(int tick) {
+        this.changeTempo(() -> this.tempoMap.removeTempo(tick));
+    }
+
+    /**
+     * Sets the most notes which may sound at once on one channel when
+     * the composition is played by the sequencer. Above that the quietest
+     * overlapping notes are left out, so dense compositions play without
+     * dropouts. The notes themselves are not changed.
+     * @param voiceLimit the largest number of notes, 0 for no limit
+     */
+    public void setVoiceLimit(int voiceLimit) {
+        this.builder.setVoiceLimit(voiceLimit);
+        this.version++;
+    }
+
+    /**
+     * returns the version of the composition, which goes up by one
+     * whenever a note, the tempo or the voice limit changes. Anything
+     * compiled from the composition is up to date while it stays the same.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * returns the most notes which may sound at once on one channel, 0
+     * for no limit
+     */
+    public int getVoiceLimit() {
+        return this.builder.getVoiceLimit();
+    }
+
+    /**
+     * Finds how many notes sound at once, on each channel and over time
+     * @param binTicks the number of ticks in each bin of the density
+     * @return the polyphony of the composition
+     */
+    public PolyphonyAnalysis analyzePolyphony(int binTicks) {
+        return PolyphonyAnalysis.analyze(this.store, binTicks);
+    }
+
+    /**
+     * returns the timing of playback
+     */
+    public PlaybackStats getPlaybackStats() {
+        return this.stats;
+    }
+
+    /**
+     * returns the tempo changes of the composition
+     */
+    public TempoMap getTempoMap() {
+        return this.tempoMap;
+    }
+
+    /**
+     * Edits the tempo map, keeping the players at the tick they are
+     * playing
+     * @param edit the edit of the tempo map
+     */
+    private void changeTempo(Runnable edit) {
+        if (this.streamer != null) {
+            this.streamer.rebase();
         }
-       return temp;
+        edit.run();
+        this.player.setMicrosPerBeat(
+                this.tempoMap.getMicrosPerBeatAt(this.getTickPosition()));
+    }
+
+
+    /**
+     * gets every selected note, including the notes inside gestures
+     * @return the selected notes in order of their id
+     */
+    public List<Note> getSelectedNotes(){
+        NoteSelection selection = this.store.getSelection();
+        List<Note> temp = new ArrayList<>(selection.size());
+        selection.forEachSelected(id -> temp.add(this.store.getNote(id)));
+        return temp;
     }
 
-    public List<Note> nestNotes(Playable note){
-        List<Note> temp = new ArrayList<>();
-        if( note instanceof Note ){
-            if(((Note)note).selectedProperty().get())
-                temp.add((Note) note);
-        } else if (note instanceof Gesture){
-            for(Playable p : ((Gesture) note).getChildren()){
-                temp.addAll(nestNotes(p));
+    /**
+     * The set of top level playables. Keeps the live flags of the note
+     * store in step with which notes can be reached from the composition,
+     * and tracks which of the playables are selected.
+     */
+    private class PlayableSet extends AbstractSet<Playable> {
+        /** the playables in the set */
+        private HashSet<Playable> playables = new HashSet<>();
+        /** the playables in the set which are selected */
+        private LinkedHashSet<Playable> selected = new LinkedHashSet<>();
+        /** moves a playable in or out of the selected set */
+        private ChangeListener<Boolean> selectionListener = (observable, oldValue, newValue) -> {
+            Playable playable = (Playable) ((ReadOnlyProperty<?>) observable).getBean();
+            if (newValue) {
+                this.selected.add(playable);
+            } else {
+                this.selected.remove(playable);
             }
+        };
+
+        @Override
+        public boolean add(Playable playable) {
+            if (!this.playables.add(playable)) {
+                return false;
+            }
+            this.attach(playable);
+            return true;
         }
-        return temp;
 
+        @Override
+        public boolean remove(Object o) {
+            if (!this.playables.remove(o)) {
+                return false;
+            }
+            this.detach((Playable) o);
+            return true;
+        }
 
+        @Override
+        public boolean contains(Object o) {
+            return this.playables.contains(o);
+        }
+
+        @Override
+        public int size() {
+            return this.playables.size();
+        }
+
+        @Override
+        public Iterator<Playable> iterator() {
+            Iterator<Playable> iterator = this.playables.iterator();
+            return new Iterator<Playable>() {
+                /** the playable last returned by next */
+                private Playable current;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Playable next() {
+                    this.current = iterator.next();
+                    return this.current;
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                    detach(this.current);
+                }
+            };
+        }
+
+        /** makes the notes of a playable live and follows its selection */
+        private void attach(Playable playable) {
+            playable.forEachNoteId(id -> store.setLive(id, true));
+            playable.selectedProperty().addListener(this.selectionListener);
+            if (playable.selectedProperty().get()) {
+                this.selected.add(playable);
+            }
+        }
+
+        /** retires the notes of a playable and stops following it */
+        private void detach(Playable playable) {
+            playable.forEachNoteId(id -> store.setLive(id, false));
+            playable.selectedProperty().removeListener(this.selectionListener);
+            this.selected.remove(playable);
+        }
     }
 }
@@ -0,0 +1,219 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Stack;
+import java.util.function.IntConsumer;
+
+/**
+ * A plain copy of the notes and gestures of a composition: the values
+ * saved for each note and how the gestures nest, with no JavaFX objects
+ * and no link to a NoteStore. A snapshot can therefore be read from a
+ * file, or written to one, on any thread, while the notes and
+ * rectangles themselves are only created or read on the FX thread.
+ */
+public class CompositionSnapshot {
+    /** the top level notes and gestures */
+    private List<Element> elements = new ArrayList<>();
+    /** the gestures being filled, innermost last */
+    private Stack<List<Element>> open = new Stack<>();
+    /** the number of notes, at any depth */
+    private int noteCount;
+    /** the rightmost x of the notes */
+    private int rightX;
+
+    /**
+     * Creates an empty snapshot
+     */
+    public CompositionSnapshot() {
+        this.open.push(this.elements);
+    }
+
+    /**
+     * Copies the values of the given notes and gestures
+     * @param playables the top level items to copy
+     * @return the snapshot of the items
+     */
+    public static CompositionSnapshot of(Collection<Playable> playables) {
+        CompositionSnapshot snapshot = new CompositionSnapshot();
+        for (Playable playable : playables) {
+            snapshot.copy(playable);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Adds a note to the innermost open gesture, or the top level
+     * @param x the start tick
+     * @param y the y of the note in the panel
+     * @param width the duration in ticks
+     * @param instrument the instrument value
+     * @param volume the volume
+     */
+    public void addNote(double x, double y, int width, int instrument, int volume) {
+        this.open.peek().add(new Element(x, y, width, instrument, volume));
+        this.noteCount++;
+        this.rightX = Math.max(this.rightX, (int) (x + width));
+    }
+
+    /**
+     * Opens a gesture in the innermost open gesture, or the top level.
+     * Items added until the matching endGesture belong to it.
+     */
+    public void beginGesture() {
+        this.open.push(new ArrayList<>());
+    }
+
+    /**
+     * Closes the innermost open gesture. A gesture without any items
+     * is dropped.
+     */
+    public void endGesture() {
+        if (this.open.size() > 1) {
+            List<Element> children = this.open.pop();
+            if (!children.isEmpty()) {
+                this.open.peek().add(new Element(children));
+            }
+        }
+    }
+
+    /**
+     * returns the top level notes and gestures
+     */
+    public List<Element> getElements() {
+        return Collections.unmodifiableList(this.elements);
+    }
+
+    /**
+     * returns the number of notes, at any depth
+     */
+    public int getNoteCount() {
+        return this.noteCount;
+    }
+
+    /**
+     * returns the rightmost x of the notes
+     */
+    public int getRightX() {
+        return this.rightX;
+    }
+
+    /**
+     * Writes the snapshot in the composition file format
+     * @param writer where to write the XML
+     * @param written called after each top level item with the number
+     *                of notes written so far
+     * @throws IOException if the writer fails
+     */
+    public void writeXML(CompositionWriter writer, IntConsumer written) throws IOException {
+        writer.startComposition();
+        int notes = 0;
+        for (Element element : this.elements) {
+            element.writeXML(writer, 1);
+            notes += element.getNoteCount();
+            written.accept(notes);
+        }
+        writer.endComposition();
+    }
+
+    /** adds a copy of the item to the innermost open gesture */
+    private void copy(Playable playable) {
+        if (playable instanceof Gesture) {
+            this.beginGesture();
+            for (Playable child : ((Gesture) playable).getChildren()) {
+                this.copy(child);
+            }
+            this.endGesture();
+        } else if (playable instanceof Note) {
+            Note note = (Note) playable;
+            this.addNote(note.getStartTick(), note.getY(), note.getDuration(),
+                         note.getInstrumentValue(), note.getVolume());
+        }
+    }
+
+    /**
+     * A note, or a gesture and its items
+     */
+    public static class Element {
+        /** the start tick of a note */
+        private double x;
+        /** the y of a note in the panel */
+        private double y;
+        /** the duration of a note */
+        private int width;
+        /** the instrument value of a note */
+        private int instrument;
+        /** the volume of a note */
+        private int volume;
+        /** the items of a gesture, null for a note */
+        private List<Element> children;
+        /** the number of notes, 1 for a note */
+        private int noteCount;
+
+        /** creates a note */
+        private Element(double x, double y, int width, int instrument, int volume) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.instrument = instrument;
+            this.volume = volume;
+            this.noteCount = 1;
+        }
+
+        /** creates a gesture */
+        private Element(List<Element> children) {
+            this.children = children;
+            for (Element child : children) {
+                this.noteCount += child.noteCount;
+            }
+        }
+
+        /**
+         * returns whether this is a gesture rather than a note
+         */
+        public boolean isGesture() {
+            return this.children != null;
+        }
+
+        /**
+         * returns the items of a gesture, null for a note
+         */
+        public List<Element> getChildren() {
+            return (this.children == null) ? null : Collections.unmodifiableList(this.children);
+        }
+
+        public double getX() { return this.x; }
+
+        public double getY() { return this.y; }
+
+        public int getWidth() { return this.width; }
+
+        public int getInstrument() { return this.instrument; }
+
+        public int getVolume() { return this.volume; }
+
+        /**
+         * returns the number of notes, at any depth, 1 for a note
+         */
+        public int getNoteCount() {
+            return this.noteCount;
+        }
+
+        /** writes the XML of this item, as Note and Gesture write it */
+        private void writeXML(CompositionWriter writer, int numTabs) throws IOException {
+            if (this.children == null) {
+                writer.writeNote(numTabs, (int) this.x, (int) this.y, this.width,
+                                 this.instrument, this.volume);
+            } else {
+                writer.startGesture(numTabs);
+                for (Element child : this.children) {
+                    child.writeXML(writer, numTabs + 1);
+                }
+                writer.endGesture(numTabs);
+            }
+        }
+    }
+}
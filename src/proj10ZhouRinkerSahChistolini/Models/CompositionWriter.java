@@ -0,0 +1,233 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Writes notes and gestures in the composition file format straight to
+ * a channel. Every element is written into one reusable byte buffer, a
+ * byte at a time with the numbers formatted in place, and the buffer is
+ * handed to the channel whenever it fills, so writing a composition
+ * takes time linear in its size, allocates nothing per note and holds
+ * no more than the buffer in memory. The format only ever contains
+ * ASCII, so no character encoder is needed.
+ */
+public class CompositionWriter implements Closeable, Flushable {
+    /** the size of the buffer */
+    private static final int BUFFER_BYTES = 1 << 16;
+    /** the number of spaces per level of indentation */
+    private static final int TAB_WIDTH = 4;
+
+    /** the fixed parts of the format */
+    private static final byte[] COMPOSITION_START = ascii("<Composition>\n");
+    private static final byte[] COMPOSITION_END = ascii("</Composition>\n");
+    private static final byte[] GESTURE_START = ascii("<Gesture>\n");
+    private static final byte[] GESTURE_END = ascii("</Gesture>\n");
+    private static final byte[] NOTE_XPOS = ascii("<Note xpos=\"");
+    private static final byte[] NOTE_YPOS = ascii("\" ypos=\"");
+    private static final byte[] NOTE_WIDTH = ascii("\" width=\"");
+    private static final byte[] NOTE_INSTRUMENT = ascii("\" instValue=\"");
+    private static final byte[] NOTE_VOLUME = ascii("\" volume=\"");
+    private static final byte[] NOTE_END = ascii("\" />\n");
+
+    /** where the buffer is written to */
+    private WritableByteChannel channel;
+    /** the bytes not yet written to the channel */
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    /** room for the digits of a number, written backwards */
+    private byte[] digits = new byte[20];
+
+    /**
+     * Creates a writer
+     * @param channel the channel to write to
+     */
+    public CompositionWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * returns the XML of the given items as a whole composition, as
+     * copied to the clipboard
+     * @param playables the top level items
+     */
+    public static String toXML(Collection<Playable> playables) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CompositionWriter writer = new CompositionWriter(Channels.newChannel(bytes))) {
+            writer.writeComposition(playables);
+        } catch (IOException e) {
+            //a byte array does not fail
+            throw new UncheckedIOException(e);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * returns the XML of one item
+     * @param playable the item to write
+     * @param numTabs the indentation level of the item
+     */
+    public static String toXML(Playable playable, int numTabs) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CompositionWriter writer = new CompositionWriter(Channels.newChannel(bytes))) {
+            playable.writeXML(writer, numTabs);
+        } catch (IOException e) {
+            //a byte array does not fail
+            throw new UncheckedIOException(e);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the given items as a whole composition
+     * @param playables the top level items
+     * @throws IOException if the channel fails
+     */
+    public void writeComposition(Collection<Playable> playables) throws IOException {
+        this.startComposition();
+        for (Playable playable : playables) {
+            playable.writeXML(this, 1);
+        }
+        this.endComposition();
+    }
+
+    /**
+     * Writes the opening tag of a composition
+     * @throws IOException if the channel fails
+     */
+    public void startComposition() throws IOException {
+        this.put(COMPOSITION_START);
+    }
+
+    /**
+     * Writes the closing tag of a composition
+     * @throws IOException if the channel fails
+     */
+    public void endComposition() throws IOException {
+        this.put(COMPOSITION_END);
+    }
+
+    /**
+     * Writes the opening tag of a gesture
+     * @param numTabs the indentation level of the gesture
+     * @throws IOException if the channel fails
+     */
+    public void startGesture(int numTabs) throws IOException {
+        this.indent(numTabs);
+        this.put(GESTURE_START);
+    }
+
+    /**
+     * Writes the closing tag of a gesture
+     * @param numTabs the indentation level of the gesture
+     * @throws IOException if the channel fails
+     */
+    public void endGesture(int numTabs) throws IOException {
+        this.indent(numTabs);
+        this.put(GESTURE_END);
+    }
+
+    /**
+     * Writes a note
+     * @param numTabs the indentation level of the note
+     * @param x the start tick
+     * @param y the y of the note in the panel
+     * @param width the duration in ticks
+     * @param instrument the instrument value
+     * @param volume the volume
+     * @throws IOException if the channel fails
+     */
+    public void writeNote(int numTabs, int x, int y, int width, int instrument, int volume)
+            throws IOException {
+        this.indent(numTabs);
+        this.put(NOTE_XPOS);
+        this.putInt(x);
+        this.put(NOTE_YPOS);
+        this.putInt(y);
+        this.put(NOTE_WIDTH);
+        this.putInt(width);
+        this.put(NOTE_INSTRUMENT);
+        this.putInt(instrument);
+        this.put(NOTE_VOLUME);
+        this.putInt(volume);
+        this.put(NOTE_END);
+    }
+
+    /**
+     * Writes everything buffered to the channel
+     * @throws IOException if the channel fails
+     */
+    @Override
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Writes everything buffered and closes the channel
+     * @throws IOException if the channel fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /** writes the spaces of an indentation level */
+    private void indent(int numTabs) throws IOException {
+        for (int i = 0; i < numTabs * TAB_WIDTH; i++) {
+            this.put((byte) ' ');
+        }
+    }
+
+    /** writes a number in decimal */
+    private void putInt(int value) throws IOException {
+        long remaining = value;
+        if (remaining < 0) {
+            this.put((byte) '-');
+            remaining = -remaining;
+        }
+        int count = 0;
+        do {
+            this.digits[count++] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        while (count > 0) {
+            this.put(this.digits[--count]);
+        }
+    }
+
+    /** writes some bytes */
+    private void put(byte[] bytes) throws IOException {
+        if (this.buffer.remaining() < bytes.length) {
+            this.flush();
+        }
+        this.buffer.put(bytes);
+    }
+
+    /** writes one byte */
+    private void put(byte b) throws IOException {
+        if (!this.buffer.hasRemaining()) {
+            this.flush();
+        }
+        this.buffer.put(b);
+    }
+
+    /** returns the ASCII bytes of a string */
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
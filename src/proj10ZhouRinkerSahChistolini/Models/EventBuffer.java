@@ -0,0 +1,333 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.util.Arrays;
+
+/**
+ * Packed buffer of the short midi events of many notes, used to build a
+ * track in one go. Each event is a single long holding its tick, an
+ * order within the tick, the status byte and both data bytes, so the
+ * buffer fills without allocating, sorts with one primitive sort and
+ * is then written to the track in tick order, where every Track.add is
+ * an append.
+ *
+ * Every note asks for a program change at its start tick. When the
+ * events are written only the first program change of each channel,
+ * moved to tick 0 or to the start of the span being written, and the
+ * ones which change the instrument of their channel are kept.
+ */
+public class EventBuffer {
+    /** bits below the tick, holding order, status, data1 and data2 */
+    private static final int TICK_SHIFT = 26;
+    /** bits below the order, holding status, data1 and data2 */
+    private static final int ORDER_SHIFT = 24;
+    /** the number of midi channels */
+    private static final int CHANNEL_COUNT = 16;
+    /** events at the same tick: program changes, then note offs, then note ons */
+    static final int PROGRAM_ORDER = 0;
+    static final int OFF_ORDER = 1;
+    static final int ON_ORDER = 2;
+
+    /** the packed events */
+    private long[] events;
+    /** the number of events in the buffer */
+    private int size;
+    /** the number of notes in the buffer */
+    private int noteCount;
+    /** the number of program changes written by the last write */
+    private int programChangeCount;
+
+    /**
+     * Creates a buffer with room for the given number of notes
+     * @param noteCapacity the number of notes to reserve room for
+     */
+    public EventBuffer(int noteCapacity) {
+        this.events = new long[Math.max(3, noteCapacity * 3)];
+        this.size = 0;
+        this.noteCount = 0;
+    }
+
+    /**
+     * Adds the events of one note
+     * @param pitch the pitch of the note (0-127)
+     * @param volume the volume of the note (0-127)
+     * @param startTick the tick the note starts at
+     * @param duration the number of ticks the note plays
+     * @param channel the channel of the note (0-15)
+     * @param instrument the instrument of the note (0-127)
+     */
+    public void addNote(int pitch, int volume, int startTick, int duration,
+                        int channel, int instrument) {
+        if (this.size + 3 > this.events.length) {
+            this.events = Arrays.copyOf(this.events, this.events.length * 2);
+        }
+        this.events[this.size++] = pack(startTick, PROGRAM_ORDER,
+                ShortMessage.PROGRAM_CHANGE + channel, instrument, 0);
+        this.events[this.size++] = pack(startTick, ON_ORDER,
+                ShortMessage.NOTE_ON + channel, pitch, volume);
+        this.events[this.size++] = pack(startTick + duration, OFF_ORDER,
+                ShortMessage.NOTE_OFF + channel, pitch, volume);
+        this.noteCount++;
+    }
+
+    /**
+     * Adds the events of a note held in a NoteStore
+     * @param store the store holding the note
+     * @param id the id of the note
+     * @param offset the number of ticks to shift the note to the left
+     */
+    public void addNote(NoteStore store, int id, int offset) {
+        this.addNote(store.getPitch(id), store.getVolume(id),
+                     store.getStartTick(id) - offset, store.getDuration(id),
+                     store.getChannel(id), store.getInstrument(id));
+    }
+
+    /**
+     * Sorts the events and appends them to the track in tick order,
+     * leaving out the program changes which are not needed
+     * @param track the track to write to
+     */
+    public void writeTo(Track track) {
+        this.writeTo(track, 0);
+    }
+
+    /**
+     * Sorts the events and appends them to the track in tick order,
+     * leaving out the program changes which are not needed, with the
+     * first program of each channel at the given tick
+     * @param track the track to write to
+     * @param programTick the tick of the first program changes, at or
+     *                    before the first note
+     */
+    public void writeTo(Track track, int programTick) {
+        this.sort();
+        long[] events = this.resolvePrograms(programTick);
+        for (long event : events) {
+            track.add(toEvent(event));
+        }
+    }
+
+    /**
+     * Sorts the events in the buffer by tick
+     */
+    void sort() {
+        Arrays.sort(this.events, 0, this.size);
+    }
+
+    /**
+     * Merges sorted buffers into one sorted buffer, taking the smallest
+     * remaining event of all the buffers each step
+     * @param parts the buffers to merge, each already sorted
+     * @return a sorted buffer holding the events of every part
+     */
+    static EventBuffer merge(EventBuffer[] parts) {
+        int total = 0;
+        int notes = 0;
+        for (EventBuffer part : parts) {
+            total += part.size;
+            notes += part.noteCount;
+        }
+        EventBuffer merged = new EventBuffer(0);
+        merged.events = new long[Math.max(total, 1)];
+        merged.noteCount = notes;
+        //a binary heap of the parts ordered by their next event
+        int[] heap = new int[parts.length];
+        int[] next = new int[parts.length];
+        int heapSize = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].size > 0) {
+                heap[heapSize++] = i;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, parts, next);
+        }
+        while (heapSize > 0) {
+            int part = heap[0];
+            merged.events[merged.size++] = parts[part].events[next[part]++];
+            if (next[part] == parts[part].size) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0, parts, next);
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the sorted events to write, with the program change of
+     * each channel moved to tick 0 and the ones which do not change the
+     * instrument left out. The buffer must be sorted.
+     */
+    long[] resolvePrograms() {
+        return this.resolvePrograms(0);
+    }
+
+    /**
+     * Returns the sorted events to write, with the first program change
+     * of each channel moved to the given tick and the ones which do not
+     * change the instrument left out. The buffer must be sorted.
+     */
+    long[] resolvePrograms(int programTick) {
+        int[] program = new int[CHANNEL_COUNT];
+        Arrays.fill(program, -1);
+        return this.resolvePrograms(programTick, program);
+    }
+
+    /**
+     * Returns the sorted events to write, as resolvePrograms(int) does,
+     * for events following earlier ones which left each channel with the
+     * given program. Only a channel without a program, -1, has its first
+     * program change moved to the given tick, and the programs are
+     * updated to the ones in effect after the events. The buffer must be
+     * sorted.
+     * @param programTick the tick of the first program changes
+     * @param program the program of each channel, -1 for none yet
+     */
+    long[] resolvePrograms(int programTick, int[] program) {
+        long[] resolved = new long[this.size + CHANNEL_COUNT];
+        int count = 0;
+        //the first program of a channel without one goes at programTick
+        boolean[] placed = new boolean[CHANNEL_COUNT];
+        int unplaced = 0;
+        for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+            if (program[channel] < 0) {
+                unplaced++;
+            }
+        }
+        for (int i = 0; i < this.size && count < unplaced; i++) {
+            long event = this.events[i];
+            int channel = channel(event);
+            if (order(event) == PROGRAM_ORDER && program[channel] < 0 && !placed[channel]) {
+                placed[channel] = true;
+                resolved[count++] = event;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            long event = resolved[i];
+            program[channel(event)] = data1(event);
+            resolved[i] = pack(programTick, PROGRAM_ORDER,
+                    ShortMessage.PROGRAM_CHANGE + channel(event), data1(event), 0);
+        }
+        Arrays.sort(resolved, 0, count);
+        for (int i = 0; i < this.size; i++) {
+            long event = this.events[i];
+            if (order(event) == PROGRAM_ORDER) {
+                if (program[channel(event)] == data1(event)) {
+                    continue;
+                }
+                program[channel(event)] = data1(event);
+            }
+            resolved[count++] = event;
+        }
+        this.programChangeCount = count - 2 * this.noteCount;
+        return Arrays.copyOf(resolved, count);
+    }
+
+    /**
+     * creates the midi event for a packed event
+     * @param event the packed event
+     */
+    static MidiEvent toEvent(long event) {
+        return new MidiEvent(toMessage(event), tick(event));
+    }
+
+    /**
+     * creates the midi message of a packed event
+     * @param event the packed event
+     */
+    static ShortMessage toMessage(long event) {
+        ShortMessage message = new ShortMessage();
+        try {
+            message.setMessage(status(event), data1(event), data2(event));
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+        return message;
+    }
+
+    /**
+     * Empties the buffer, keeping its room
+     */
+    public void clear() {
+        this.size = 0;
+        this.noteCount = 0;
+    }
+
+    /**
+     * returns the number of notes in the buffer
+     */
+    public int getNoteCount() {
+        return this.noteCount;
+    }
+
+    /**
+     * returns the number of program changes written by the last write
+     */
+    public int getProgramChangeCount() {
+        return this.programChangeCount;
+    }
+
+    /**
+     * packs an event into a long which sorts by tick and then by order
+     */
+    static long pack(int tick, int order, int status, int data1, int data2) {
+        return ((long) Math.max(tick, 0) << TICK_SHIFT) | ((long) order << ORDER_SHIFT)
+                | (status << 16) | (data1 << 8) | data2;
+    }
+
+    /** returns the tick of a packed event */
+    static int tick(long event) {
+        return (int) (event >>> TICK_SHIFT);
+    }
+
+    private static int order(long event) {
+        return (int) (event >>> ORDER_SHIFT) & 0x3;
+    }
+
+    private static int status(long event) {
+        return (int) (event >>> 16) & 0xFF;
+    }
+
+    private static int channel(long event) {
+        return (int) (event >>> 16) & 0x0F;
+    }
+
+    private static int data1(long event) {
+        return (int) (event >>> 8) & 0xFF;
+    }
+
+    private static int data2(long event) {
+        return (int) event & 0xFF;
+    }
+
+    /** restores the heap order below a slot of the merge heap */
+    private static void siftDown(int[] heap, int heapSize, int slot,
+                                 EventBuffer[] parts, int[] next) {
+        while (true) {
+            int smallest = slot;
+            int left = 2 * slot + 1;
+            int right = left + 1;
+            if (left < heapSize && head(heap[left], parts, next) < head(heap[smallest], parts, next)) {
+                smallest = left;
+            }
+            if (right < heapSize && head(heap[right], parts, next) < head(heap[smallest], parts, next)) {
+                smallest = right;
+            }
+            if (smallest == slot) {
+                return;
+            }
+            int swap = heap[slot];
+            heap[slot] = heap[smallest];
+            heap[smallest] = swap;
+            slot = smallest;
+        }
+    }
+
+    /** returns the next event of a part being merged */
+    private static long head(int part, EventBuffer[] parts, int[] next) {
+        return parts[part].events[next[part]];
+    }
+}
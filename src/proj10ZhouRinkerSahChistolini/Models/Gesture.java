@@ -1,21 +1,36 @@
 package proj10ZhouRinkerSahChistolini.Models;
 
+import java.io.IOException;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.function.IntConsumer;
 
 /**
- * Grouping class of playable sounds
+ * Grouping class of playable sounds. The bounds and volume totals of the
+ * children are cached and recomputed only after a note underneath changes.
  */
 public class Gesture extends Playable{
     /** The direct children of the gesture*/
     private Collection<Playable> children;
 
+    /** whether the cached values below are up to date */
+    private boolean boundsValid;
+    /** cached leftmost x of the children */
+    private double minX;
+    /** cached rightmost x of the children */
+    private double maxRightX;
+    /** cached sum of the volumes of all notes under the gesture */
+    private int volumeSum;
+    /** cached number of notes under the gesture */
+    private int leafCount;
+
     /**
      * Initialize a gesture with alloted children
      * @param children
      */
     public Gesture(Collection<Playable> children){
         this.children = children;
+        this.children.forEach(n -> n.setParent(this));
+        this.boundsValid = false;
     }
 
     /**
@@ -31,11 +46,18 @@ public class Gesture extends Playable{
     }
 
     public int getVolume(){
-        int total = 0;
-        for (Playable child : this.children){
-            total += child.getVolume();
-        }
-        return total/this.children.size();
+        this.validateBounds();
+        return (this.leafCount == 0) ? 0 : this.volumeSum/this.leafCount;
+    }
+
+    public int getVolumeSum(){
+        this.validateBounds();
+        return this.volumeSum;
+    }
+
+    public int getLeafCount(){
+        this.validateBounds();
+        return this.leafCount;
     }
 
     /**
@@ -43,24 +65,63 @@ public class Gesture extends Playable{
      * @return
      */
     public double getX(){
-        return this.children.stream().min(Comparator.comparing(Playable::getX)).get().getX();
+        this.validateBounds();
+        return this.minX;
     }
 
     /**
      * Get the right x of the gesture
      */
     public double getRightX(){
-        return this.children.stream()
-                .max(Comparator.comparing(n -> n.getX()+n.getWidth())).get().getRightX();
+        this.validateBounds();
+        return this.maxRightX;
     }
     public double getWidth(){
-        Playable left = this.children.stream().min(
-            Comparator.comparing(Playable::getX)
-        ).get();
-        Playable right = this.children.stream().max(
-            Comparator.comparing(n -> n.getX()+n.getWidth())
-        ).get();
-        return right.getX() + right.getWidth() - left.getX();
+        this.validateBounds();
+        return this.maxRightX - this.minX;
+    }
+
+    @Override
+    public void invalidateBounds(){
+        //ancestors are already stale if this gesture is
+        if (this.boundsValid) {
+            this.boundsValid = false;
+            super.invalidateBounds();
+        }
+    }
+
+    /**
+     * Recomputes the cached values from the children if a note
+     * underneath has changed since they were last computed
+     */
+    private void validateBounds(){
+        if (this.boundsValid) {
+            return;
+        }
+        double left = Double.MAX_VALUE;
+        double right = -Double.MAX_VALUE;
+        int sum = 0;
+        int count = 0;
+        for (Playable child : this.children) {
+            left = Math.min(left, child.getX());
+            right = Math.max(right, child.getRightX());
+            sum += child.getVolumeSum();
+            count += child.getLeafCount();
+        }
+        if (this.children.isEmpty()) {
+            left = 0;
+            right = 0;
+        }
+        this.minX = left;
+        this.maxRightX = right;
+        this.volumeSum = sum;
+        this.leafCount = count;
+        this.boundsValid = true;
+    }
+
+    @Override
+    public void forEachNoteId(IntConsumer action){
+        this.children.forEach(n -> n.forEachNoteId(action));
     }
 
      @Override
@@ -72,20 +133,17 @@ public class Gesture extends Playable{
     public String toString() { return toXML(0); }
 
     /**
-     * Returns XML formatted string of GroupRectangle and
-     * its children
+     * Writes the XML of the gesture and its children
+     * @param writer the writer to write to
      * @param numTabs an int representing the indentation level
      *                to make the string more readable
-     * @return String representation of the object
+     * @throws IOException if the writer fails
      */
-    public String toXML(int numTabs) {
-        String kids = "";
+    public void writeXML(CompositionWriter writer, int numTabs) throws IOException {
+        writer.startGesture(numTabs);
         for(Playable child : this.children) {
-            kids += child.toXML(numTabs+1);
+            child.writeXML(writer, numTabs+1);
         }
-        String tabbing = (numTabs > 0) ? String.format("%" + numTabs*4 + "s", " ") : "";
-        return tabbing + "<Gesture>\n" +
-                kids +
-                tabbing + "</Gesture>\n";
+        writer.endGesture(numTabs);
     }
 }
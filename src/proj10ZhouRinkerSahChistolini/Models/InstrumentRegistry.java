@@ -0,0 +1,127 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Lookup tables for the instruments of the instrument panel. Instruments
+ * can be found by midi program number or by position in an array, and
+ * by name in a hash map. The tables are rebuilt as a whole whenever the
+ * instruments change and swapped in with a single write, so a reader
+ * never sees a half updated mapping. Each swap bumps the version.
+ */
+public class InstrumentRegistry {
+    /** The number of midi program numbers */
+    private static final int PROGRAM_COUNT = 128;
+
+    /** the current lookup tables */
+    private volatile Mapping mapping;
+
+    /**
+     * Creates an empty registry
+     */
+    public InstrumentRegistry() {
+        this.mapping = new Mapping(Collections.<Instrument>emptyList(), 0);
+    }
+
+    /**
+     * Replaces every instrument in the registry. The instruments are
+     * expected to have their ids set to their position in the list.
+     * @param instruments the new instruments, in panel order
+     */
+    public synchronized void setInstruments(List<Instrument> instruments) {
+        this.mapping = new Mapping(instruments, this.mapping.version + 1);
+    }
+
+    /**
+     * returns the number of times the instruments have been replaced
+     */
+    public long getVersion() {
+        return this.mapping.version;
+    }
+
+    /**
+     * returns the number of instruments in the registry
+     */
+    public int size() {
+        return this.mapping.byId.length;
+    }
+
+    /**
+     * returns the instrument with the given midi program number,
+     * or null if there is none
+     * @param value the midi program number (0-127)
+     */
+    public Instrument getByValue(int value) {
+        if (value < 0 || value >= PROGRAM_COUNT) {
+            return null;
+        }
+        return this.mapping.byValue[value];
+    }
+
+    /**
+     * returns the instrument with the given id, or null if there is none
+     * @param id the position of the instrument in the panel
+     */
+    public Instrument getById(int id) {
+        Instrument[] byId = this.mapping.byId;
+        return (id < 0 || id >= byId.length) ? null : byId[id];
+    }
+
+    /**
+     * returns the instrument with the given name, or null if there is none
+     * @param name the name of the instrument
+     */
+    public Instrument getByName(String name) {
+        return this.mapping.byName.get(name);
+    }
+
+    /**
+     * returns the position in the panel of the instrument with the given
+     * midi program number, or -1 if there is none
+     * @param value the midi program number (0-127)
+     */
+    public int indexOfValue(int value) {
+        if (value < 0 || value >= PROGRAM_COUNT) {
+            return -1;
+        }
+        return this.mapping.indexByValue[value];
+    }
+
+    /**
+     * One immutable set of lookup tables
+     */
+    private static class Mapping {
+        /** the instruments in panel order */
+        private final Instrument[] byId;
+        /** the instrument for each midi program number */
+        private final Instrument[] byValue;
+        /** the panel position for each midi program number */
+        private final int[] indexByValue;
+        /** the instruments by name */
+        private final HashMap<String, Instrument> byName;
+        /** the version of the registry these tables belong to */
+        private final long version;
+
+        private Mapping(List<Instrument> instruments, long version) {
+            this.byId = instruments.toArray(new Instrument[instruments.size()]);
+            this.byValue = new Instrument[PROGRAM_COUNT];
+            this.indexByValue = new int[PROGRAM_COUNT];
+            this.byName = new HashMap<>();
+            this.version = version;
+            Arrays.fill(this.indexByValue, -1);
+            //the first instrument with a value or name wins, as with a scan
+            for (int i = this.byId.length - 1; i >= 0; i--) {
+                Instrument instrument = this.byId[i];
+                int value = instrument.getValue();
+                if (value >= 0 && value < PROGRAM_COUNT) {
+                    this.byValue[value] = instrument;
+                    this.indexByValue[value] = i;
+                }
+                this.byName.put(instrument.getName(), instrument);
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * Time ordered index over the notes of a NoteStore. Each note is an
+ * interval [startTick, startTick + duration) kept in a treap ordered by
+ * start tick, where every node also records the largest end tick found
+ * in its subtree. This answers overlap and window queries in
+ * O(log n + k) and the end of the composition in O(1).
+ *
+ * Nodes are addressed by note id, so the index uses the same dense ids
+ * as the store and needs no node objects.
+ */
+public class IntervalIndex {
+    /** marks a missing child */
+    private static final int NIL = -1;
+
+    /** the start tick of each indexed note */
+    private int[] start;
+    /** the end tick of each indexed note */
+    private int[] end;
+    /** the left child of each node */
+    private int[] left;
+    /** the right child of each node */
+    private int[] right;
+    /** the heap priority of each node */
+    private int[] priority;
+    /** the largest end tick in the subtree rooted at each node */
+    private int[] maxEnd;
+    /** ids which are currently in the index */
+    private BitSet present;
+    /** the root of the treap */
+    private int root;
+    /** the number of indexed notes */
+    private int size;
+    /** source of the node priorities */
+    private Random random;
+
+    /**
+     * Creates an empty index
+     * @param capacity the number of ids to reserve room for
+     */
+    public IntervalIndex(int capacity) {
+        this.start = new int[capacity];
+        this.end = new int[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.priority = new int[capacity];
+        this.maxEnd = new int[capacity];
+        this.present = new BitSet();
+        this.random = new Random();
+        this.root = NIL;
+        this.size = 0;
+    }
+
+    /**
+     * Makes sure ids below the given capacity can be indexed
+     * @param capacity the number of ids to reserve room for
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.start.length) {
+            this.start = Arrays.copyOf(this.start, capacity);
+            this.end = Arrays.copyOf(this.end, capacity);
+            this.left = Arrays.copyOf(this.left, capacity);
+            this.right = Arrays.copyOf(this.right, capacity);
+            this.priority = Arrays.copyOf(this.priority, capacity);
+            this.maxEnd = Arrays.copyOf(this.maxEnd, capacity);
+        }
+    }
+
+    /**
+     * Adds a note to the index, replacing its old interval if it
+     * is already indexed
+     * @param id the id of the note
+     * @param startTick the first tick of the note
+     * @param endTick the tick after the last tick of the note
+     */
+    public void insert(int id, int startTick, int endTick) {
+        this.remove(id);
+        this.start[id] = startTick;
+        this.end[id] = endTick;
+        this.maxEnd[id] = endTick;
+        this.left[id] = NIL;
+        this.right[id] = NIL;
+        this.priority[id] = this.random.nextInt();
+        this.root = this.insert(this.root, id);
+        this.present.set(id);
+        this.size++;
+    }
+
+    /**
+     * Removes a note from the index, does nothing if it is not indexed
+     * @param id the id of the note
+     */
+    public void remove(int id) {
+        if (this.present.get(id)) {
+            this.root = this.remove(this.root, id);
+            this.present.clear(id);
+            this.size--;
+        }
+    }
+
+    /**
+     * Removes every note from the index
+     */
+    public void clear() {
+        this.present.clear();
+        this.root = NIL;
+        this.size = 0;
+    }
+
+    /**
+     * returns whether the note is in the index
+     * @param id the id of the note
+     */
+    public boolean contains(int id) {
+        return this.present.get(id);
+    }
+
+    /**
+     * returns the number of indexed notes
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * returns the largest end tick of all the notes, 0 when empty
+     */
+    public int maxEnd() {
+        return (this.root == NIL) ? 0 : this.maxEnd[this.root];
+    }
+
+    /**
+     * returns the smallest start tick of all the notes, 0 when empty
+     */
+    public int minStart() {
+        if (this.root == NIL) {
+            return 0;
+        }
+        int node = this.root;
+        while (this.left[node] != NIL) {
+            node = this.left[node];
+        }
+        return this.start[node];
+    }
+
+    /**
+     * Applies the action to every note sounding in [fromTick, toTick),
+     * in order of start tick
+     * @param fromTick the first tick of the range
+     * @param toTick the tick after the last tick of the range
+     * @param action the action to apply to each id
+     */
+    public void forEachOverlapping(int fromTick, int toTick, IntConsumer action) {
+        this.overlapping(this.root, fromTick, toTick, action);
+    }
+
+    /**
+     * Applies the action to every note starting in [fromTick, toTick),
+     * in order of start tick
+     * @param fromTick the first tick of the window
+     * @param toTick the tick after the last tick of the window
+     * @param action the action to apply to each id
+     */
+    public void forEachStartingIn(int fromTick, int toTick, IntConsumer action) {
+        this.startingIn(this.root, fromTick, toTick, action);
+    }
+
+    /** orders nodes by start tick, breaking ties with the id */
+    private boolean precedes(int a, int b) {
+        return this.start[a] < this.start[b]
+                || (this.start[a] == this.start[b] && a < b);
+    }
+
+    /** recomputes the subtree maximum of a node from its children */
+    private void update(int node) {
+        int max = this.end[node];
+        if (this.left[node] != NIL) {
+            max = Math.max(max, this.maxEnd[this.left[node]]);
+        }
+        if (this.right[node] != NIL) {
+            max = Math.max(max, this.maxEnd[this.right[node]]);
+        }
+        this.maxEnd[node] = max;
+    }
+
+    private int rotateRight(int node) {
+        int child = this.left[node];
+        this.left[node] = this.right[child];
+        this.right[child] = node;
+        this.update(node);
+        this.update(child);
+        return child;
+    }
+
+    private int rotateLeft(int node) {
+        int child = this.right[node];
+        this.right[node] = this.left[child];
+        this.left[child] = node;
+        this.update(node);
+        this.update(child);
+        return child;
+    }
+
+    private int insert(int node, int id) {
+        if (node == NIL) {
+            return id;
+        }
+        if (this.precedes(id, node)) {
+            this.left[node] = this.insert(this.left[node], id);
+            if (this.priority[this.left[node]] > this.priority[node]) {
+                return this.rotateRight(node);
+            }
+        } else {
+            this.right[node] = this.insert(this.right[node], id);
+            if (this.priority[this.right[node]] > this.priority[node]) {
+                return this.rotateLeft(node);
+            }
+        }
+        this.update(node);
+        return node;
+    }
+
+    private int remove(int node, int id) {
+        if (node == id) {
+            return this.merge(this.left[node], this.right[node]);
+        }
+        if (this.precedes(id, node)) {
+            this.left[node] = this.remove(this.left[node], id);
+        } else {
+            this.right[node] = this.remove(this.right[node], id);
+        }
+        this.update(node);
+        return node;
+    }
+
+    /** joins two treaps where every node of a precedes every node of b */
+    private int merge(int a, int b) {
+        if (a == NIL) {
+            return b;
+        }
+        if (b == NIL) {
+            return a;
+        }
+        if (this.priority[a] > this.priority[b]) {
+            this.right[a] = this.merge(this.right[a], b);
+            this.update(a);
+            return a;
+        }
+        this.left[b] = this.merge(a, this.left[b]);
+        this.update(b);
+        return b;
+    }
+
+    private void overlapping(int node, int fromTick, int toTick, IntConsumer action) {
+        if (node == NIL || this.maxEnd[node] <= fromTick) {
+            return;
+        }
+        this.overlapping(this.left[node], fromTick, toTick, action);
+        if (this.start[node] < toTick) {
+            if (this.end[node] > fromTick) {
+                action.accept(node);
+            }
+            this.overlapping(this.right[node], fromTick, toTick, action);
+        }
+    }
+
+    private void startingIn(int node, int fromTick, int toTick, IntConsumer action) {
+        if (node == NIL) {
+            return;
+        }
+        if (this.start[node] >= fromTick) {
+            this.startingIn(this.left[node], fromTick, toTick, action);
+            if (this.start[node] < toTick) {
+                action.accept(node);
+            }
+        }
+        if (this.start[node] < toTick) {
+            this.startingIn(this.right[node], fromTick, toTick, action);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.util.Arrays;
+
+/**
+ * Counts durations, in microseconds, in buckets which double in width:
+ * under 1, 1 to 2, 2 to 4 and so on up to about half an hour. The
+ * count, sum, smallest and largest values are kept exactly, and
+ * percentiles are read from the buckets. Recording takes constant time
+ * and no allocation, so it is safe on the sequencer thread.
+ */
+public class LatencyHistogram {
+    /** the number of buckets */
+    private static final int BUCKETS = 32;
+    /** the widest bar drawn by toString */
+    private static final int BAR_WIDTH = 40;
+
+    /** what is being measured */
+    private final String name;
+    /** the number of values in each bucket */
+    private final long[] counts = new long[BUCKETS];
+    /** the number of values recorded */
+    private long count;
+    /** the sum of the values recorded */
+    private long sum;
+    /** the smallest value recorded */
+    private long min = Long.MAX_VALUE;
+    /** the largest value recorded */
+    private long max;
+
+    /**
+     * Creates an empty histogram
+     * @param name what is being measured
+     */
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * returns what is being measured
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Adds a value, negative values counting as 0
+     * @param micros the duration in microseconds
+     */
+    public synchronized void record(long micros) {
+        micros = Math.max(0, micros);
+        this.counts[bucketOf(micros)]++;
+        this.count++;
+        this.sum += micros;
+        this.min = Math.min(this.min, micros);
+        this.max = Math.max(this.max, micros);
+    }
+
+    /**
+     * Drops every value
+     */
+    public synchronized void reset() {
+        Arrays.fill(this.counts, 0);
+        this.count = 0;
+        this.sum = 0;
+        this.min = Long.MAX_VALUE;
+        this.max = 0;
+    }
+
+    /**
+     * returns the number of values recorded
+     */
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    /**
+     * returns the smallest value, 0 when empty
+     */
+    public synchronized long getMin() {
+        return (this.count == 0) ? 0 : this.min;
+    }
+
+    /**
+     * returns the largest value, 0 when empty
+     */
+    public synchronized long getMax() {
+        return this.max;
+    }
+
+    /**
+     * returns the mean value, 0 when empty
+     */
+    public synchronized double getMean() {
+        return (this.count == 0) ? 0 : (double) this.sum / this.count;
+    }
+
+    /**
+     * returns an upper bound on the given percentile: the top of the
+     * bucket it falls in, but never above the largest value
+     * @param percentile the percentile, from 0 to 100
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * this.count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(this.max, upperBound(i));
+            }
+        }
+        return this.max;
+    }
+
+    /**
+     * returns the number of values in each bucket; bucket i holds the
+     * values below 2^i microseconds not in an earlier bucket
+     */
+    public synchronized long[] getBucketCounts() {
+        return this.counts.clone();
+    }
+
+    /**
+     * returns the summary and the non empty buckets, one per line,
+     * with a bar for each
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%s: n=%d min=%d mean=%.0f p50=%d p99=%d max=%d (us)%n",
+                                  this.name, this.count, this.getMin(), this.getMean(),
+                                  this.getPercentile(50), this.getPercentile(99), this.max));
+        long largest = 0;
+        for (long bucket : this.counts) {
+            largest = Math.max(largest, bucket);
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            if (this.counts[i] == 0) {
+                continue;
+            }
+            int bar = (int) Math.max(1, this.counts[i] * BAR_WIDTH / largest);
+            char[] hashes = new char[bar];
+            Arrays.fill(hashes, '#');
+            text.append(String.format("  < %10d %8d %s%n", upperBound(i),
+                                      this.counts[i], new String(hashes)));
+        }
+        return text.toString();
+    }
+
+    /** returns the bucket of a value */
+    private static int bucketOf(long micros) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /** returns the value the bucket holds values below */
+    private static long upperBound(int bucket) {
+        return 1L << bucket;
+    }
+}
@@ -9,6 +9,7 @@
 package proj10ZhouRinkerSahChistolini.Models;
 
 import javax.sound.midi.*;
+import java.util.BitSet;
 
 /**
  * This class has a simple interface for playing MIDI sounds.
@@ -16,25 +17,33 @@ import javax.sound.midi.*;
  */
 public class MidiPlayer
 {
-    private static final int NUM_TRACKS = 8;
+    /** the number of tracks in each sequence */
+    static final int NUM_TRACKS = 8;
 
     /** the sequencer that stores Midi events and plays them when requested */
     private Sequencer sequencer;
 
-    /** the number of beats per minute that is used when a sound is played */
-    private int beatsPerMinute;
+    /** the number of microseconds per beat that is used when a sound is played */
+    private float microsPerBeat;
+
+    /** the number of notes added since the sequence was last cleared */
+    private int noteCount;
+
+    /** the number of program changes written for those notes */
+    private int programChangeCount;
 
     /**
-     * Creates a new MidiPlayer with the given parameters.
+     * Creates a new MidiPlayer with the given parameters. The sequencer
+     * is shared through the SequencerService, so players are cheap to
+     * make and never open a device of their own.
      * @param resolution     the number of ticks per beat
      * @param beatsPerMinute the number of beats per minute
      */
     public MidiPlayer(int resolution, int beatsPerMinute)
     {
-        this.beatsPerMinute = beatsPerMinute;
+        this.microsPerBeat = 60000000f / beatsPerMinute;
         try {
-            sequencer = MidiSystem.getSequencer(); // factory
-            sequencer.open();
+            sequencer = SequencerService.getInstance().getSequencer();
             Sequence sequence = new Sequence(Sequence.PPQ,
                     resolution, NUM_TRACKS);
             sequencer.setSequence(sequence);
@@ -102,28 +111,96 @@ public class MidiPlayer
     }
 
     /**
-     * A convenience method for adding notes to the composition.
+     * adds every event of a buffer of notes to the given track. This is
+     * much faster than adding the notes one at a time when there are
+     * many of them.
+     *
+     * @param buffer     the notes to add
+     * @param trackIndex an integer from 0 to 7 giving the track for the notes
+     */
+    public void addEvents(EventBuffer buffer, int trackIndex)
+    {
+        buffer.writeTo(sequencer.getSequence().getTracks()[trackIndex]);
+        noteCount += buffer.getNoteCount();
+        programChangeCount += buffer.getProgramChangeCount();
+    }
+
+    /**
+     * adds the notes of a store to the given track through a
+     * ParallelSequenceBuilder, which uses every core for large builds
      *
-     * @param pitch      an integer from 0 to 127 giving the pitch
-     * @param volume     an integer from 0 to 127 giving the volume
-     * @param startTick  tells when the note is to start playing (in ticks)
-     * @param duration   the number of ticks the note is to play
-     * @param channel    an integer from 0 to 15; each channel typically
-     *                      corresponds to a different instrument.  The default
-     *                      instrument for all channels is the grand piano.
-     * @param trackIndex an integer from 0 to 7 giving the track for the note
-     * @param instrument an integer from 0 to 127 giving the instrument
+     * @param builder    the builder to use
+     * @param store      the store holding the notes
+     * @param ids        the ids of the notes to add
+     * @param offset     the number of ticks to shift every note to the left
+     * @param trackIndex an integer from 0 to 7 giving the track for the notes
+     */
+    public void addNotes(ParallelSequenceBuilder builder, NoteStore store,
+                         BitSet ids, int offset, int trackIndex)
+    {
+        programChangeCount += builder.build(store, ids, offset,
+                sequencer.getSequence().getTracks()[trackIndex]);
+        noteCount += ids.cardinality() - builder.getDroppedCount();
+    }
+
+    /**
+     * @return the number of notes added since the sequence was cleared
+     */
+    public int getNoteCount()
+    {
+        return noteCount;
+    }
+
+    /**
+     * @return the number of program changes added for those notes
+     */
+    public int getProgramChangeCount()
+    {
+        return programChangeCount;
+    }
+
+    /**
+     * @return the average number of midi events written per note,
+     *         0 when there are no notes
+     */
+    public double getEventsPerNote()
+    {
+        if (noteCount == 0) {
+            return 0;
+        }
+        return (2.0 * noteCount + getProgramChangeCount()) / noteCount;
+    }
+
+    /**
+     * changes the tempo, taking effect immediately even while playing
+     * @param beatsPerMinute the number of beats per minute
+     */
+    public void setTempo(int beatsPerMinute)
+    {
+        setMicrosPerBeat(60000000f / beatsPerMinute);
+    }
+
+    /**
+     * changes the tempo, taking effect immediately even while playing.
+     * Tempo events in the sequence change it again as they play.
+     * @param microsPerBeat the number of microseconds per beat
+     */
+    public void setMicrosPerBeat(float microsPerBeat)
+    {
+        this.microsPerBeat = microsPerBeat;
+        sequencer.setTempoInMPQ(microsPerBeat);
+    }
+
+    /**
+     * adds the tempo events of a tempo map to the given track
      *
+     * @param tempoMap   the tempo of the composition
+     * @param offset     the number of ticks to shift every event to the left
+     * @param trackIndex an integer from 0 to 7 giving the track for the events
      */
-    public void addNote(int pitch, int volume, int startTick, int duration,
-                        int channel, int trackIndex, int instrument)
+    public void addTempoMap(TempoMap tempoMap, int offset, int trackIndex)
     {
-        addMidiEvent(ShortMessage.NOTE_ON + channel, pitch, volume,
-                startTick, trackIndex);
-        addMidiEvent(ShortMessage.NOTE_OFF + channel, pitch, volume,
-                startTick + duration, trackIndex);
-        addMidiEvent(ShortMessage.PROGRAM_CHANGE + channel, instrument, 0,
-            0, trackIndex);
+        tempoMap.writeTo(sequencer.getSequence().getTracks()[trackIndex], offset);
     }
 
     /**
@@ -134,13 +211,65 @@ public class MidiPlayer
     {
 //        try {
             // this next line should be unnecessary, but seems to be needed
-            sequencer.setTempoInBPM(beatsPerMinute);
+            sequencer.setTempoInMPQ(microsPerBeat);
             sequencer.start();
 //        } catch (InvalidMidiDataException e) {
 //            e.printStackTrace();
 //        }
     }
 
+    /**
+     * plays the current sequence from the given tick, without rebuilding it
+     * @param fromTick the tick to start playing at
+     */
+    public void play(long fromTick)
+    {
+        sequencer.setTickPosition(fromTick);
+        play();
+    }
+
+    /**
+     * loops the given region of the current sequence until stopped. The
+     * sequencer jumps back by itself, so there is no gap and no rebuild.
+     * @param startTick the first tick of the region
+     * @param endTick   the tick at which playback jumps back to startTick
+     */
+    public void setLoop(long startTick, long endTick)
+    {
+        endTick = Math.min(endTick, sequencer.getTickLength());
+        sequencer.setLoopEndPoint(-1);
+        sequencer.setLoopStartPoint(Math.min(startTick, endTick));
+        sequencer.setLoopEndPoint(endTick);
+        sequencer.setLoopCount(Sequencer.LOOP_CONTINUOUSLY);
+    }
+
+    /**
+     * plays the sequence through once again
+     */
+    public void clearLoop()
+    {
+        sequencer.setLoopCount(0);
+        sequencer.setLoopEndPoint(-1);
+        sequencer.setLoopStartPoint(0);
+    }
+
+    /**
+     * returns the tick the sequencer is playing, or stopped at
+     */
+    public long getTickPosition()
+    {
+        return sequencer.getTickPosition();
+    }
+
+    /**
+     * returns the time of the sequence the sequencer is playing, or
+     * stopped at, in microseconds
+     */
+    public long getMicrosecondPosition()
+    {
+        return sequencer.getMicrosecondPosition();
+    }
+
     /**
      * stops all the Midi events currently playing or yet to be played
      */
@@ -157,6 +286,8 @@ public class MidiPlayer
         try {
             sequencer.setSequence(new Sequence(Sequence.PPQ,
                     getResolution(), NUM_TRACKS));
+            noteCount = 0;
+            programChangeCount = 0;
         } catch (InvalidMidiDataException e) {
             e.printStackTrace();
         }
@@ -165,4 +296,21 @@ public class MidiPlayer
     public Sequence getSequence(){
         return this.sequencer.getSequence();
     }
+
+    /**
+     * replaces the sequence to be played and rewinds to its start.
+     * Notes already in the sequence are not counted by the metrics.
+     * @param sequence the sequence to play
+     */
+    public void setSequence(Sequence sequence)
+    {
+        try {
+            sequencer.setSequence(sequence);
+            sequencer.setTickPosition(0);
+            noteCount = 0;
+            programChangeCount = 0;
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+    }
 }
\ No newline at end of file
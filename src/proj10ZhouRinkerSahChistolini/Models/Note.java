@@ -13,41 +13,51 @@ package proj10ZhouRinkerSahChistolini.Models;
 
 import javafx.beans.property.*;
 
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 /**
- * Holds all the information of a note
+ * Holds all the information of a note. The values themselves live in
+ * the composition's NoteStore, this object is a view of one slot in it.
  */
 public class Note extends Playable{
 
     /** the instrument that the note plays */
     private Instrument instrument;
 
-
-
-    /** the duration of the note */
-    private IntegerProperty duration;
-    /** the pitch of the note */
-    private DoubleProperty pitch;
-    /** the start tick of the note */
-    private DoubleProperty startTick;
-    /** Instrument binding to rectangle*/
-    private IntegerProperty instrVal;
+    /** the store holding this note's values */
+    private NoteStore store;
+    /** this note's id in the store */
+    private int id;
+    /** the volume property, only created once something observes it */
     private IntegerProperty volume;
 
     /**
      * The constructor for Note
+     * @param store the store in which the note's values are kept
      */
-    public Note(Instrument instrument, int volume){
+    public Note(NoteStore store, Instrument instrument, int volume){
         super();
-        this.startTick = new SimpleDoubleProperty();
-        this.duration = new SimpleIntegerProperty();
-        this.pitch = new SimpleDoubleProperty();
-        this.instrVal= new SimpleIntegerProperty();
-        this.volume = new SimpleIntegerProperty();
-        this.instrument = instrument;
-        this.volume.set(volume);
+        this.store = store;
+        this.id = store.allocate(this);
+        this.store.setStartTick(this.id, 0);
+        this.store.setDuration(this.id, 0);
+        this.store.setPitch(this.id, 127);
+        this.setInstrument(instrument);
+        this.setVolume(volume);
+        this.selectedProperty().addListener((observable, oldValue, newValue) ->
+                this.store.getSelection().setSelected(this.id, newValue));
+    }
+
+    /**
+     * gets the note's id in the store
+     * @return the id of this note
+     */
+    public int getId() {
+        return this.id;
     }
 
     /**
@@ -63,7 +73,7 @@ public class Note extends Playable{
     }
 
     public int getInstrumentValue(){
-        return this.instrVal.intValue();
+        return this.store.getInstrument(this.id);
     }
 
     /**
@@ -72,6 +82,10 @@ public class Note extends Playable{
      */
     public void setInstrument(Instrument instrument) {
         this.instrument = instrument;
+        if (instrument != null) {
+            this.store.setInstrument(this.id, instrument.getValue());
+            this.store.setChannel(this.id, instrument.getChannel());
+        }
     }
 
     /**
@@ -79,7 +93,16 @@ public class Note extends Playable{
      * @return the duration of the note
      */
     public int getDuration() {
-        return this.durationProperty().intValue();
+        return this.store.getDuration(this.id);
+    }
+
+    /**
+     * sets the duration of the note
+     * @param duration the number of ticks the note is played
+     */
+    public void setDuration(int duration) {
+        this.store.setDuration(this.id, duration);
+        this.invalidateBounds();
     }
 
     /**
@@ -87,66 +110,90 @@ public class Note extends Playable{
      * @return the pitch of this note
      */
     public int getPitch() {
-        return 127-this.pitchProperty().intValue()/10;
+        return this.store.getPitch(this.id);
+    }
+
+    /**
+     * sets the pitch from the y position of the note on the staff
+     * @param y the y position of the note
+     */
+    public void setY(double y) {
+        this.store.setPitch(this.id, 127 - ((int) y)/10);
     }
 
+    /**
+     * the y position of the note on the staff
+     * @return the y position matching this note's pitch
+     */
+    public int getY() {
+        return (127 - this.getPitch())*10 + 1;
+    }
 
     /**
      * the tick at which this note will start playing
      * @return the starting tick
      */
     public int getStartTick() {
-        return this.startTickProperty().intValue();
+        return this.store.getStartTick(this.id);
     }
 
-    public double getX(){return this.getStartTick();}
-    public double getWidth(){return this.getDuration();}
-    public double getRightX(){return this.getX()+this.getWidth();}
-
     /**
-     * Gets the duration property
-     * @return DoubleProperty duration
+     * sets the tick at which this note will start playing
+     * @param startTick the starting tick
      */
-    public IntegerProperty durationProperty() {
-        return duration;
+    public void setStartTick(int startTick) {
+        this.store.setStartTick(this.id, startTick);
+        this.invalidateBounds();
     }
 
+    public double getX(){return this.getStartTick();}
+    public double getWidth(){return this.getDuration();}
+    public double getRightX(){return this.getX()+this.getWidth();}
+
     /**
      * Gets the volume property
      * @return IntegerProperty volume
      */
-    public IntegerProperty volumeProperty() { return this.volume; }
+    public IntegerProperty volumeProperty() {
+        if (this.volume == null) {
+            this.volume = new SimpleIntegerProperty(this.getVolume());
+            this.volume.addListener((observable, oldValue, newValue) -> {
+                this.store.setVolume(this.id, newValue.intValue());
+                this.invalidateBounds();
+            });
+        }
+        return this.volume;
+    }
 
     public int getVolume(){
-        return this.volumeProperty().intValue();
+        return this.store.getVolume(this.id);
     }
     /**
-     * Gets the volume property
-     * @return IntegerProperty volume
+     * Sets the volume of the note, clamped to 0-127
+     * @param val the new volume
      */
-    public void setVolume(int val) { this.volume.set(max(0, min(val, 127))); }
+    public void setVolume(int val) {
+        int clamped = max(0, min(val, 127));
+        if (this.volume != null) {
+            this.volume.set(clamped);
+        } else {
+            this.store.setVolume(this.id, clamped);
+            this.invalidateBounds();
+        }
+    }
 
-    /**
-     * Gets the pitch property
-     * @return DoubleProperty pitch
-     */
-    public DoubleProperty pitchProperty() {
-        return pitch;
+    public int getVolumeSum(){
+        return this.getVolume();
     }
 
-    /**
-     * Gets the startTick property
-     * @return DoubleProperty startTick
-     */
-    public DoubleProperty startTickProperty() {
-        return startTick;
+    public int getLeafCount(){
+        return 1;
     }
 
-    /**
-     * Gets the intrVal property
-     * @return DoubleProperty instrVal
-     */
-    public IntegerProperty intrValProperty() {return this.instrVal;}
+    @Override
+    public void forEachNoteId(IntConsumer action) {
+        action.accept(this.id);
+    }
 
     @Override
     /**
@@ -156,21 +203,15 @@ public class Note extends Playable{
     public String toString() {return toXML(0);}
 
     /**
-     * Returns XML formatted string of Note object
+     * Writes the XML of the Note object
+     * @param writer the writer to write to
      * @param numTabs an int representing the indentation level
      *                to make the string more readable
-     * @return String representation of the object
+     * @throws IOException if the writer fails
      */
-    public String toXML(int numTabs) {
-        String tabbing = (numTabs > 0) ? String.format("%" + numTabs*4 + "s", " ") : "";
-        return tabbing +
-                "<Note " +
-                "xpos=\"" + this.startTickProperty().intValue()    +"\" "+
-                "ypos=\"" + this.pitchProperty().intValue() +"\" "+
-                "width=\"" + this.durationProperty().getValue()     + "\" " +
-                "instValue=\"" + this.instrument.getValue()  +"\" " +
-                "volume=\"" + this.getVolume()  +"\" " +
-                "/>\n";
+    public void writeXML(CompositionWriter writer, int numTabs) throws IOException {
+        writer.writeNote(numTabs, this.getStartTick(), this.getY(), this.getDuration(),
+                         this.getInstrumentValue(), this.getVolume());
     }
 
 }
\ No newline at end of file
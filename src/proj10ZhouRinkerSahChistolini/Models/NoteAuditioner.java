@@ -0,0 +1,175 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a short preview of a note while it is being edited. Previews go
+ * straight to the receiver of the shared synthesizer on a channel no
+ * instrument uses, so they never wait for a sequence to be built and
+ * never disturb playback.
+ *
+ * Previews closer together than MIN_INTERVAL_MILLIS are debounced: the
+ * first plays at once, and of the ones that follow within the interval
+ * only the last plays, when the interval is over. Dragging a note
+ * quickly across many rows therefore sounds a handful of notes instead
+ * of one per row.
+ */
+public class NoteAuditioner {
+    /** the midi channel reserved for previews */
+    public static final int PREVIEW_CHANNEL = 15;
+    /** the shortest time between two previews */
+    private static final long MIN_INTERVAL_MILLIS = 40;
+    /** how long a preview sounds */
+    private static final long NOTE_MILLIS = 200;
+
+    /** the synthesizer the previews play on */
+    private Synthesizer synthesizer;
+    /** the receiver of the synthesizer */
+    private Receiver receiver;
+    /** runs the delayed note offs and debounced previews */
+    private ScheduledExecutorService scheduler;
+
+    /** the pitch sounding, -1 if none */
+    private int soundingPitch = -1;
+    /** the instrument last selected on the preview channel */
+    private int program = -1;
+    /** counts previews, so a stale note off leaves a newer preview alone */
+    private long generation;
+    /** the time the last preview was sent */
+    private long lastSentNanos;
+    /** the preview waiting for the interval to end, null if none */
+    private int[] waiting;
+
+    /** the time taken by the last preview to reach the synthesizer */
+    private long lastDispatchMicros;
+    /** the longest time taken by a preview to reach the synthesizer */
+    private long maxDispatchMicros;
+
+    /**
+     * Creates an auditioner on the shared synthesizer
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     */
+    public NoteAuditioner() throws MidiUnavailableException {
+        this.synthesizer = SequencerService.getInstance().getSynthesizer();
+        this.receiver = this.synthesizer.getReceiver();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "note-audition");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastSentNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(MIN_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Plays a short preview of a note, or schedules it if a preview
+     * was played less than the minimum interval ago
+     * @param pitch the pitch of the note (0-127)
+     * @param instrument the instrument of the note (0-127)
+     * @param volume the volume of the note (0-127)
+     */
+    public synchronized void audition(int pitch, int instrument, int volume) {
+        long requested = System.nanoTime();
+        long wait = this.lastSentNanos + TimeUnit.MILLISECONDS.toNanos(MIN_INTERVAL_MILLIS) - requested;
+        if (wait <= 0) {
+            this.waiting = null;
+            this.send(pitch, instrument, volume, requested);
+            return;
+        }
+        boolean scheduled = this.waiting != null;
+        this.waiting = new int[] {pitch, instrument, volume};
+        if (!scheduled) {
+            this.scheduler.schedule(this::sendWaiting, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * returns the time, in microseconds, the last preview took from the
+     * request to the synthesizer, not counting a debounce delay
+     */
+    public synchronized long getLastDispatchMicros() {
+        return this.lastDispatchMicros;
+    }
+
+    /**
+     * returns the longest time, in microseconds, a preview took from the
+     * request to the synthesizer, not counting a debounce delay
+     */
+    public synchronized long getMaxDispatchMicros() {
+        return this.maxDispatchMicros;
+    }
+
+    /**
+     * returns the time, in microseconds, from a request to the sound of
+     * the last preview: the dispatch time and the synthesizer latency
+     */
+    public synchronized long getLastLatencyMicros() {
+        return this.lastDispatchMicros + this.synthesizer.getLatency();
+    }
+
+    /**
+     * Silences the preview channel and stops the scheduler
+     */
+    public synchronized void close() {
+        this.waiting = null;
+        this.noteOff();
+        this.scheduler.shutdownNow();
+    }
+
+    /** plays the preview which waited for the interval to end */
+    private synchronized void sendWaiting() {
+        if (this.waiting != null) {
+            int[] note = this.waiting;
+            this.waiting = null;
+            this.send(note[0], note[1], note[2], System.nanoTime());
+        }
+    }
+
+    /** stops the sounding preview and starts a new one */
+    private void send(int pitch, int instrument, int volume, long requested) {
+        this.noteOff();
+        if (this.program != instrument) {
+            this.program = instrument;
+            this.sendMessage(ShortMessage.PROGRAM_CHANGE, instrument, 0);
+        }
+        this.sendMessage(ShortMessage.NOTE_ON, pitch, volume);
+        this.soundingPitch = pitch;
+        this.lastSentNanos = System.nanoTime();
+        this.lastDispatchMicros = (this.lastSentNanos - requested) / 1000;
+        this.maxDispatchMicros = Math.max(this.maxDispatchMicros, this.lastDispatchMicros);
+
+        long sent = ++this.generation;
+        this.scheduler.schedule(() -> {
+            synchronized (this) {
+                if (this.generation == sent) {
+                    this.noteOff();
+                }
+            }
+        }, NOTE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** stops the sounding preview, if any */
+    private void noteOff() {
+        if (this.soundingPitch >= 0) {
+            this.sendMessage(ShortMessage.NOTE_OFF, this.soundingPitch, 0);
+            this.soundingPitch = -1;
+        }
+    }
+
+    /** sends a message on the preview channel right away */
+    private void sendMessage(int command, int data1, int data2) {
+        try {
+            ShortMessage message = new ShortMessage();
+            message.setMessage(command, PREVIEW_CHANNEL, data1, data2);
+            this.receiver.send(message, -1);
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * The selection state of the notes of a NoteStore, kept as bitmaps over
+ * the dense note ids. Only notes which are both selected and live count
+ * as selected, so deleted notes keep their flag for an undo without
+ * showing up in the selection.
+ */
+public class NoteSelection {
+    /** ids whose selected flag is set */
+    private BitSet flagged;
+    /** ids which are flagged and live */
+    private BitSet selected;
+    /** the store whose notes are selected */
+    private NoteStore store;
+    /** the number of selected live notes */
+    private ReadOnlyIntegerWrapper count;
+
+    /**
+     * Creates an empty selection
+     * @param store the store whose notes are selected
+     */
+    public NoteSelection(NoteStore store) {
+        this.store = store;
+        this.flagged = new BitSet();
+        this.selected = new BitSet();
+        this.count = new ReadOnlyIntegerWrapper(this, "count", 0);
+    }
+
+    /**
+     * Sets the selected flag of a note
+     * @param id the id of the note
+     * @param isSelected whether the note is selected
+     */
+    public void setSelected(int id, boolean isSelected) {
+        this.flagged.set(id, isSelected);
+        this.refresh(id);
+    }
+
+
+    /**
+     * Forgets every note
+     */
+    void clear() {
+        this.flagged.clear();
+        this.selected.clear();
+        this.count.set(0);
+    }
+
+    /**
+     * returns whether the note is live and selected
+     * @param id the id of the note
+     */
+    public boolean isSelected(int id) {
+        return this.selected.get(id);
+    }
+
+    /**
+     * returns the number of selected notes
+     */
+    public int size() {
+        return this.count.get();
+    }
+
+    /**
+     * returns whether no note is selected
+     */
+    public boolean isEmpty() {
+        return this.count.get() == 0;
+    }
+
+    /**
+     * returns a read only property holding the number of selected notes
+     */
+    public ReadOnlyIntegerProperty countProperty() {
+        return this.count.getReadOnlyProperty();
+    }
+
+    /**
+     * Applies the action to the id of every selected note
+     * @param action the action to apply to each id
+     */
+    public void forEachSelected(IntConsumer action) {
+        for (int id = this.selected.nextSetBit(0); id >= 0;
+             id = this.selected.nextSetBit(id + 1)) {
+            action.accept(id);
+        }
+    }
+
+    /**
+     * recomputes whether a note counts as selected, called when its
+     * flag or its live state changes
+     * @param id the id of the note
+     */
+    void refresh(int id) {
+        boolean isSelected = this.flagged.get(id) && this.store.isLive(id);
+        if (isSelected != this.selected.get(id)) {
+            this.selected.set(id, isSelected);
+            this.count.set(this.count.get() + (isSelected ? 1 : -1));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Column store holding the data of every note in a composition.
+ * Each note is identified by a dense integer id which indexes the
+ * parallel arrays below. Notes which are reachable from the composition
+ * are marked live, deleted notes keep their slot so they can be restored
+ * by an undo. Live notes are also kept in an IntervalIndex ordered by
+ * time. Every write to a note, and every change of its liveness, is
+ * reported to the onNoteChanged handler with the id of the note.
+ */
+public class NoteStore {
+    /** The number of slots allocated when the store is created */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** the tick at which each note starts */
+    private int[] startTick;
+    /** the number of ticks each note is played */
+    private int[] duration;
+    /** the midi pitch (0-127) of each note */
+    private int[] pitch;
+    /** the midi volume (0-127) of each note */
+    private int[] volume;
+    /** the midi instrument value (0-127) of each note */
+    private int[] instrument;
+    /** the midi channel (0-15) of each note */
+    private int[] channel;
+    /** the Note view of each slot */
+    private Note[] notes;
+
+    /** ids of the notes which currently belong to the composition */
+    private BitSet live;
+    /** the number of ids handed out so far */
+    private int size;
+    /** the live notes ordered by time */
+    private IntervalIndex timeIndex;
+    /** the selected notes */
+    private NoteSelection selection;
+    /** called with the id of each note whose values or liveness change */
+    private IntConsumer onNoteChanged = id -> {};
+
+    /**
+     * Creates an empty note store
+     */
+    public NoteStore() {
+        this.startTick = new int[INITIAL_CAPACITY];
+        this.duration = new int[INITIAL_CAPACITY];
+        this.pitch = new int[INITIAL_CAPACITY];
+        this.volume = new int[INITIAL_CAPACITY];
+        this.instrument = new int[INITIAL_CAPACITY];
+        this.channel = new int[INITIAL_CAPACITY];
+        this.notes = new Note[INITIAL_CAPACITY];
+        this.live = new BitSet();
+        this.size = 0;
+        this.timeIndex = new IntervalIndex(INITIAL_CAPACITY);
+        this.selection = new NoteSelection(this);
+    }
+
+    /**
+     * Reserves a new slot in the store. The note is not live until
+     * {@link #setLive(int, boolean)} is called.
+     * @param note the view of the new slot
+     * @return the id of the new note
+     */
+    public int allocate(Note note) {
+        if (this.size == this.startTick.length) {
+            int capacity = this.size * 2;
+            this.startTick = Arrays.copyOf(this.startTick, capacity);
+            this.duration = Arrays.copyOf(this.duration, capacity);
+            this.pitch = Arrays.copyOf(this.pitch, capacity);
+            this.volume = Arrays.copyOf(this.volume, capacity);
+            this.instrument = Arrays.copyOf(this.instrument, capacity);
+            this.channel = Arrays.copyOf(this.channel, capacity);
+            this.notes = Arrays.copyOf(this.notes, capacity);
+            this.timeIndex.ensureCapacity(capacity);
+        }
+        this.notes[this.size] = note;
+        return this.size++;
+    }
+
+    /**
+     * Removes every note from the store. Ids handed out before
+     * this call must not be used afterwards.
+     */
+    public void clear() {
+        this.live.clear();
+        this.timeIndex.clear();
+        this.selection.clear();
+        Arrays.fill(this.notes, 0, this.size, null);
+        this.size = 0;
+    }
+
+    /**
+     * Marks a note as part of, or removed from, the composition
+     * @param id the id of the note
+     * @param isLive whether the note belongs to the composition
+     */
+    public void setLive(int id, boolean isLive) {
+        this.live.set(id, isLive);
+        if (isLive) {
+            this.timeIndex.insert(id, this.startTick[id],
+                                  this.startTick[id] + this.duration[id]);
+        } else {
+            this.timeIndex.remove(id);
+        }
+        this.selection.refresh(id);
+        this.onNoteChanged.accept(id);
+    }
+
+    /**
+     * Sets the handler called with the id of every note whose values or
+     * liveness change
+     * @param onNoteChanged the handler
+     */
+    public void setOnNoteChanged(IntConsumer onNoteChanged) {
+        this.onNoteChanged = onNoteChanged;
+    }
+
+    /**
+     * returns whether the note belongs to the composition
+     * @param id the id of the note
+     */
+    public boolean isLive(int id) {
+        return this.live.get(id);
+    }
+
+    /**
+     * returns the first live id at or after the given id, or -1 if
+     * there is none. Iterate with
+     * {@code for (int id = nextLive(0); id >= 0; id = nextLive(id + 1))}
+     * @param fromId the id to start searching from
+     */
+    public int nextLive(int fromId) {
+        return this.live.nextSetBit(fromId);
+    }
+
+    /**
+     * returns the number of notes which belong to the composition
+     */
+    public int liveCount() {
+        return this.timeIndex.size();
+    }
+
+    /**
+     * returns the index of the live notes ordered by time
+     */
+    public IntervalIndex getTimeIndex() {
+        return this.timeIndex;
+    }
+
+    /**
+     * returns the selection state of the notes
+     */
+    public NoteSelection getSelection() {
+        return this.selection;
+    }
+
+    /**
+     * returns the Note viewing the given slot
+     * @param id the id of the note
+     */
+    public Note getNote(int id) {
+        return this.notes[id];
+    }
+
+    /**
+     * returns the number of ids handed out so far
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public int getStartTick(int id) { return this.startTick[id]; }
+
+    public void setStartTick(int id, int tick) {
+        this.startTick[id] = tick;
+        this.reindex(id);
+    }
+
+    public int getDuration(int id) { return this.duration[id]; }
+
+    public void setDuration(int id, int ticks) {
+        this.duration[id] = ticks;
+        this.reindex(id);
+    }
+
+    public int getPitch(int id) { return this.pitch[id]; }
+
+    public void setPitch(int id, int pitch) {
+        this.pitch[id] = pitch;
+        this.onNoteChanged.accept(id);
+    }
+
+    public int getVolume(int id) { return this.volume[id]; }
+
+    public void setVolume(int id, int volume) {
+        this.volume[id] = volume;
+        this.onNoteChanged.accept(id);
+    }
+
+    public int getInstrument(int id) { return this.instrument[id]; }
+
+    public void setInstrument(int id, int instrument) {
+        this.instrument[id] = instrument;
+        this.onNoteChanged.accept(id);
+    }
+
+    public int getChannel(int id) { return this.channel[id]; }
+
+    public void setChannel(int id, int channel) {
+        this.channel[id] = channel;
+        this.onNoteChanged.accept(id);
+    }
+
+    /**
+     * moves a live note to its new place in the time index and reports
+     * the change
+     * @param id the id of the note
+     */
+    private void reindex(int id) {
+        if (this.live.get(id)) {
+            this.timeIndex.insert(id, this.startTick[id],
+                                  this.startTick[id] + this.duration[id]);
+        }
+        this.onNoteChanged.accept(id);
+    }
+}
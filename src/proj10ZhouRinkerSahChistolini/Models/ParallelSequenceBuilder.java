@@ -0,0 +1,274 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Track;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds a track from many notes of a NoteStore on every core. The ids
+ * are split into ranges, each range is packed into its own EventBuffer
+ * and sorted by a fork join task, and the sorted buffers are merged by
+ * tick. The midi events are then created in parallel, and only the
+ * appends to the track, which is not thread safe, run on one thread.
+ * Runs of notes going to separate tracks are instead built each by its
+ * own task from start to end, appends included, since no two tasks
+ * share a track. Small builds are not worth the hand off and run on
+ * the calling thread.
+ */
+public class ParallelSequenceBuilder {
+    /** the number of notes above which the build is split across cores */
+    public static final int PARALLEL_THRESHOLD = 50000;
+    /** the smallest number of ids one task packs or converts */
+    private static final int CHUNK = 8192;
+
+    /** the pool the tasks run in */
+    private ForkJoinPool pool;
+    /** the voice budget applied before building, null for none */
+    private VoiceBudget voiceBudget;
+    /** the number of notes dropped by the budget in the last build */
+    private int droppedCount;
+
+    /**
+     * Creates a builder running its tasks in the common pool
+     */
+    public ParallelSequenceBuilder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a builder running its tasks in the given pool
+     * @param pool the pool to run the tasks in
+     */
+    public ParallelSequenceBuilder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the most notes which may sound at once on one channel. Above
+     * that the quietest overlapping notes are left out of the build.
+     * @param limit the largest number of notes, 0 for no limit
+     */
+    public void setVoiceLimit(int limit) {
+        this.voiceBudget = (limit > 0) ? new VoiceBudget(limit) : null;
+    }
+
+    /**
+     * returns the most notes which may sound at once on one channel, 0
+     * for no limit
+     */
+    public int getVoiceLimit() {
+        return (this.voiceBudget == null) ? 0 : this.voiceBudget.getLimit();
+    }
+
+    /**
+     * returns the number of notes left out by the voice limit in the
+     * last build
+     */
+    public int getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * Adds the events of the given notes to the track, in tick order and
+     * with the program changes cut down as in EventBuffer
+     * @param store the store holding the notes
+     * @param ids the ids of the notes to add
+     * @param offset the number of ticks to shift every note to the left
+     * @param track the track to add to
+     * @return the number of program changes written
+     */
+    public int build(NoteStore store, BitSet ids, int offset, Track track) {
+        this.droppedCount = 0;
+        if (this.voiceBudget != null) {
+            ids = this.voiceBudget.apply(store, ids);
+            this.droppedCount = this.voiceBudget.getDroppedCount();
+        }
+        int noteCount = ids.cardinality();
+        if (noteCount < PARALLEL_THRESHOLD || this.pool.getParallelism() < 2) {
+            EventBuffer buffer = new EventBuffer(noteCount);
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                buffer.addNote(store, id, offset);
+            }
+            buffer.writeTo(track);
+            return buffer.getProgramChangeCount();
+        }
+
+        int parts = Math.max(1, Math.min(this.pool.getParallelism() * 2,
+                                         ids.length() / CHUNK));
+        EventBuffer[] buffers = new EventBuffer[parts];
+        this.pool.invoke(new PackTask(store, ids, offset, buffers, 0, parts));
+        EventBuffer merged = EventBuffer.merge(buffers);
+        long[] events = merged.resolvePrograms();
+
+        MidiEvent[] midiEvents = new MidiEvent[events.length];
+        this.pool.invoke(new ConvertTask(events, midiEvents, 0, events.length));
+        for (MidiEvent event : midiEvents) {
+            track.add(event);
+        }
+        return merged.getProgramChangeCount();
+    }
+
+    /**
+     * Writes each run of notes to its own track as EventBuffer writes
+     * it, the first program of each channel going at the program tick
+     * of the run. The voice limit is not applied.
+     * @param store the store holding the notes
+     * @param ids the ids of the notes of each run
+     * @param programTicks the tick of the first program changes of each run
+     * @param tracks the track of each run
+     * @return the number of program changes written to each track
+     */
+    public int[] buildTracks(NoteStore store, int[][] ids, int[] programTicks, Track[] tracks) {
+        int[] programChanges = new int[tracks.length];
+        long noteCount = 0;
+        for (int[] run : ids) {
+            noteCount += run.length;
+        }
+        if (noteCount < PARALLEL_THRESHOLD || this.pool.getParallelism() < 2) {
+            for (int i = 0; i < tracks.length; i++) {
+                programChanges[i] = writeRun(store, ids[i], programTicks[i], tracks[i]);
+            }
+        } else {
+            this.pool.invoke(new TrackTask(store, ids, programTicks, tracks,
+                                           programChanges, 0, tracks.length));
+        }
+        return programChanges;
+    }
+
+    /**
+     * Writes one run of notes to a track
+     * @return the number of program changes written
+     */
+    private static int writeRun(NoteStore store, int[] ids, int programTick, Track track) {
+        EventBuffer buffer = new EventBuffer(ids.length);
+        for (int id : ids) {
+            buffer.addNote(store, id, 0);
+        }
+        buffer.writeTo(track, programTick);
+        return buffer.getProgramChangeCount();
+    }
+
+    /**
+     * Writes a range of runs to their tracks, splitting the range in
+     * half until it is a single run
+     */
+    private static class TrackTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final NoteStore store;
+        private final int[][] ids;
+        private final int[] programTicks;
+        private final Track[] tracks;
+        private final int[] programChanges;
+        private final int from;
+        private final int to;
+
+        TrackTask(NoteStore store, int[][] ids, int[] programTicks, Track[] tracks,
+                  int[] programChanges, int from, int to) {
+            this.store = store;
+            this.ids = ids;
+            this.programTicks = programTicks;
+            this.tracks = tracks;
+            this.programChanges = programChanges;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new TrackTask(this.store, this.ids, this.programTicks, this.tracks,
+                                        this.programChanges, this.from, middle),
+                          new TrackTask(this.store, this.ids, this.programTicks, this.tracks,
+                                        this.programChanges, middle, this.to));
+                return;
+            }
+            if (this.to > this.from) {
+                this.programChanges[this.from] = writeRun(this.store, this.ids[this.from],
+                        this.programTicks[this.from], this.tracks[this.from]);
+            }
+        }
+    }
+
+    /**
+     * Packs and sorts the notes of a run of id ranges, splitting the run
+     * in half until it is a single range
+     */
+    private static class PackTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final NoteStore store;
+        private final BitSet ids;
+        private final int offset;
+        private final EventBuffer[] buffers;
+        private final int from;
+        private final int to;
+
+        PackTask(NoteStore store, BitSet ids, int offset,
+                 EventBuffer[] buffers, int from, int to) {
+            this.store = store;
+            this.ids = ids;
+            this.offset = offset;
+            this.buffers = buffers;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new PackTask(this.store, this.ids, this.offset,
+                                       this.buffers, this.from, middle),
+                          new PackTask(this.store, this.ids, this.offset,
+                                       this.buffers, middle, this.to));
+                return;
+            }
+            int length = this.ids.length();
+            int firstId = (int) ((long) length * this.from / this.buffers.length);
+            int endId = (int) ((long) length * this.to / this.buffers.length);
+            EventBuffer buffer = new EventBuffer(endId - firstId);
+            for (int id = this.ids.nextSetBit(firstId); id >= 0 && id < endId;
+                 id = this.ids.nextSetBit(id + 1)) {
+                buffer.addNote(this.store, id, this.offset);
+            }
+            buffer.sort();
+            this.buffers[this.from] = buffer;
+        }
+    }
+
+    /**
+     * Creates the midi events of a range of packed events
+     */
+    private static class ConvertTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] events;
+        private final MidiEvent[] midiEvents;
+        private final int from;
+        private final int to;
+
+        ConvertTask(long[] events, MidiEvent[] midiEvents, int from, int to) {
+            this.events = events;
+            this.midiEvents = midiEvents;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > CHUNK) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new ConvertTask(this.events, this.midiEvents, this.from, middle),
+                          new ConvertTask(this.events, this.midiEvents, middle, this.to));
+                return;
+            }
+            for (int i = this.from; i < this.to; i++) {
+                this.midiEvents[i] = EventBuffer.toEvent(this.events[i]);
+            }
+        }
+    }
+}
@@ -3,15 +3,20 @@ package proj10ZhouRinkerSahChistolini.Models;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
 /**
  * Item that can be selected and played in a composition
  */
 public abstract class Playable {
     /** selectedproperty to track selectionOfrectangle **/
     private BooleanProperty selected;
+    /** the gesture directly containing this item, null at the top level */
+    private Gesture parent;
 
     public Playable(){
-        this.selected = new SimpleBooleanProperty();
+        this.selected = new SimpleBooleanProperty(this, "selected");
     }
 
     /**
@@ -37,10 +42,58 @@ public abstract class Playable {
     /** Get volume of the sound */
     public abstract int getVolume();
 
+    /** Get the sum of the volumes of all notes under self */
+    public abstract int getVolumeSum();
+
+    /** Get the number of notes under self */
+    public abstract int getLeafCount();
+
+    /**
+     * getter for the gesture directly containing this item
+     * @return the parent gesture or null
+     */
+    public Gesture getParent() {
+        return this.parent;
+    }
+
+    /**
+     * sets the gesture directly containing this item
+     * @param parent the parent gesture
+     */
+    public void setParent(Gesture parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Marks the cached bounds and aggregates of the gestures above this
+     * item as stale. Called whenever a note under this item changes.
+     */
+    public void invalidateBounds() {
+        if (this.parent != null) {
+            this.parent.invalidateBounds();
+        }
+    }
+
+    /**
+     * Applies the action to the store id of every note under this item
+     * @param action the action to apply to each id
+     */
+    public abstract void forEachNoteId(IntConsumer action);
+
     /**
      * get a XML string representing the item
      * @param numTabs number of tabs to be used in XML
      * @return the string XML
      */
-    public abstract String toXML(int numTabs);
+    public String toXML(int numTabs) {
+        return CompositionWriter.toXML(this, numTabs);
+    }
+
+    /**
+     * writes the XML of the item, and of any items under it
+     * @param writer the writer to write to
+     * @param numTabs number of tabs to be used in XML
+     * @throws IOException if the writer fails
+     */
+    public abstract void writeXML(CompositionWriter writer, int numTabs) throws IOException;
 }
@@ -0,0 +1,220 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.util.Arrays;
+
+/**
+ * Measures how quickly and how evenly playback goes: the time from
+ * pressing play until the sequence is ready, the time until the first
+ * note on reaches the synthesizer, and for every later note on how far
+ * its delivery strays from the time the tempo map gives its tick,
+ * measured from the first note. The sequencer delivers the note ons in
+ * tick order, so each one delivered is matched with the next tick of
+ * the sorted note on ticks of the sequence, and a note on sent late
+ * counts as late even if the sequencer sends it together with the ones
+ * due after it. Deliveries are reported by a TimingReceiver on the
+ * sequencer thread, everything else on the JavaFX thread.
+ */
+public class PlaybackStats {
+    /** the time from pressing play until the sequence is ready */
+    private final LatencyHistogram build = new LatencyHistogram("build");
+    /** the time from pressing play until the first note on is delivered */
+    private final LatencyHistogram firstNote = new LatencyHistogram("first note on");
+    /** how far each later note on is delivered from its due time */
+    private final LatencyHistogram jitter = new LatencyHistogram("event jitter");
+
+    /** the time play was pressed */
+    private volatile long pressedNanos;
+    /** whether deliveries are being measured */
+    private volatile boolean armed;
+    /** the tempo the due times are read from */
+    private TempoMap tempoMap;
+    /** the sorted ticks of the note ons of the sequence being played */
+    private int[] noteOnTicks = new int[0];
+    /** the index of the tick of the next note on */
+    private int next;
+    /** the index after the last note on played before jumping back */
+    private int end;
+    /** the index of the first note on of the loop region, -1 for none */
+    private int loopFrom = -1;
+
+    /** the time the reference note was delivered, 0 before the first note */
+    private long anchorNanos;
+    /** the due time of the reference note */
+    private double anchorMicros;
+    /** whether the next note on is the first after a jump back */
+    private boolean jumped;
+
+    /**
+     * Marks the moment play was pressed and stops measuring deliveries
+     * until arm is called
+     */
+    public void begin() {
+        this.armed = false;
+        this.pressedNanos = System.nanoTime();
+    }
+
+    /**
+     * Records the time since begin as the build time
+     */
+    public void built() {
+        this.build.record((System.nanoTime() - this.pressedNanos) / 1000);
+    }
+
+    /**
+     * Starts measuring the note ons delivered from now on
+     * @param noteOnTicks the sorted ticks of the sounding note ons of the
+     *                    sequence, as ticks of the tempo map
+     * @param fromTick the tick playing starts at
+     * @param loopStart the first tick of the loop region, -1 for none
+     * @param loopEnd the tick at which the sequencer jumps back to loopStart
+     * @param tempoMap the tempo the due times are read from
+     */
+    public synchronized void arm(int[] noteOnTicks, int fromTick, int loopStart, int loopEnd,
+                                 TempoMap tempoMap) {
+        this.noteOnTicks = noteOnTicks;
+        this.tempoMap = tempoMap;
+        this.next = firstAtOrAfter(noteOnTicks, fromTick);
+        this.end = noteOnTicks.length;
+        this.loopFrom = -1;
+        if (loopStart >= 0 && fromTick < loopEnd) {
+            this.loopFrom = firstAtOrAfter(noteOnTicks, loopStart);
+            this.end = firstAtOrAfter(noteOnTicks, loopEnd);
+        }
+        this.anchorNanos = 0;
+        this.jumped = false;
+        this.armed = true;
+    }
+
+    /**
+     * returns the sorted ticks of the sounding note ons of a sequence
+     * @param sequence the sequence to read
+     * @param offset the tick of the tempo map at which the sequence starts
+     */
+    public static int[] noteOnTicks(Sequence sequence, int offset) {
+        int[] ticks = new int[16];
+        int count = 0;
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                if (isSoundingNoteOn(event.getMessage())) {
+                    if (count == ticks.length) {
+                        ticks = Arrays.copyOf(ticks, count * 2);
+                    }
+                    ticks[count++] = (int) event.getTick() + offset;
+                }
+            }
+        }
+        Arrays.sort(ticks, 0, count);
+        return Arrays.copyOf(ticks, count);
+    }
+
+    /**
+     * Stops measuring deliveries
+     */
+    public void disarm() {
+        this.armed = false;
+    }
+
+    /**
+     * Reports the delivery of a message to the synthesizer
+     * @param message the message delivered
+     * @param nanos the time it was delivered
+     */
+    public void delivered(MidiMessage message, long nanos) {
+        if (!this.armed || !isSoundingNoteOn(message)) {
+            return;
+        }
+        synchronized (this) {
+            if (this.next >= this.end) {
+                if (this.loopFrom < 0) {
+                    return;
+                }
+                this.next = this.loopFrom;
+                this.jumped = true;
+            }
+            if (this.next >= this.end) {
+                return;
+            }
+            double dueMicros = this.tempoMap.toMicros(this.noteOnTicks[this.next++]);
+            if (this.anchorNanos == 0) {
+                this.firstNote.record((nanos - this.pressedNanos) / 1000);
+            } else if (!this.jumped) {
+                double lateness = (nanos - this.anchorNanos) / 1000.0
+                        - (dueMicros - this.anchorMicros);
+                this.jitter.record(Math.round(Math.abs(lateness)));
+                return;
+            }
+            //the first note, or the first after a loop jumped back
+            this.anchorNanos = nanos;
+            this.anchorMicros = dueMicros;
+            this.jumped = false;
+        }
+    }
+
+    /** returns whether a message is a note on with a volume above 0 */
+    private static boolean isSoundingNoteOn(MidiMessage message) {
+        if (!(message instanceof ShortMessage)) {
+            return false;
+        }
+        ShortMessage shortMessage = (ShortMessage) message;
+        return shortMessage.getCommand() == ShortMessage.NOTE_ON && shortMessage.getData2() > 0;
+    }
+
+    /** returns the index of the first tick at or after the given one */
+    private static int firstAtOrAfter(int[] ticks, int tick) {
+        int low = 0;
+        int high = ticks.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ticks[middle] < tick) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * returns the build times
+     */
+    public LatencyHistogram getBuildHistogram() {
+        return this.build;
+    }
+
+    /**
+     * returns the times until the first note on
+     */
+    public LatencyHistogram getFirstNoteHistogram() {
+        return this.firstNote;
+    }
+
+    /**
+     * returns the delivery jitter of the note ons
+     */
+    public LatencyHistogram getJitterHistogram() {
+        return this.jitter;
+    }
+
+    /**
+     * Drops every value recorded
+     */
+    public void reset() {
+        this.build.reset();
+        this.firstNote.reset();
+        this.jitter.reset();
+    }
+
+    /**
+     * returns the three histograms as text
+     */
+    @Override
+    public String toString() {
+        return this.build.toString() + this.firstNote.toString() + this.jitter.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.util.Arrays;
+
+/**
+ * The number of notes sounding at once in a NoteStore, found with one
+ * sweep over the start and end of every live note in tick order. It
+ * gives the peak on each channel, the peak over all channels, and the
+ * peak within each bin of a fixed number of ticks, which is what the
+ * density graph draws.
+ */
+public class PolyphonyAnalysis {
+    /** the number of midi channels */
+    public static final int CHANNEL_COUNT = 16;
+
+    /** the most notes sounding at once on each channel */
+    private final int[] channelPeaks = new int[CHANNEL_COUNT];
+    /** the first tick at which each channel reaches its peak */
+    private final int[] channelPeakTicks = new int[CHANNEL_COUNT];
+    /** the most notes sounding at once */
+    private int peak;
+    /** the first tick at which the peak is reached */
+    private int peakTick;
+    /** the number of ticks in each bin */
+    private final int binTicks;
+    /** the most notes sounding at once within each bin */
+    private int[] density;
+
+    /**
+     * Sweeps over the live notes of a store
+     * @param store the store holding the notes
+     * @param binTicks the number of ticks in each bin of the density
+     * @return the polyphony of the notes
+     */
+    public static PolyphonyAnalysis analyze(NoteStore store, int binTicks) {
+        PolyphonyAnalysis analysis = new PolyphonyAnalysis(Math.max(1, binTicks));
+        analysis.sweep(store);
+        return analysis;
+    }
+
+    private PolyphonyAnalysis(int binTicks) {
+        this.binTicks = binTicks;
+        this.density = new int[0];
+    }
+
+    /**
+     * returns the most notes sounding at once over all channels
+     */
+    public int getPeak() {
+        return this.peak;
+    }
+
+    /**
+     * returns the first tick at which the most notes sound at once
+     */
+    public int getPeakTick() {
+        return this.peakTick;
+    }
+
+    /**
+     * returns the most notes sounding at once on a channel
+     * @param channel the midi channel (0-15)
+     */
+    public int getPeak(int channel) {
+        return this.channelPeaks[channel];
+    }
+
+    /**
+     * returns the first tick at which a channel has the most notes sounding
+     * @param channel the midi channel (0-15)
+     */
+    public int getPeakTick(int channel) {
+        return this.channelPeakTicks[channel];
+    }
+
+    /**
+     * returns the highest peak of any one channel
+     */
+    public int getMaxChannelPeak() {
+        int max = 0;
+        for (int channelPeak : this.channelPeaks) {
+            max = Math.max(max, channelPeak);
+        }
+        return max;
+    }
+
+    /**
+     * returns the number of ticks in each bin of the density
+     */
+    public int getBinTicks() {
+        return this.binTicks;
+    }
+
+    /**
+     * returns the most notes sounding at once within each bin, bin i
+     * covering the ticks from i * getBinTicks() on
+     */
+    public int[] getDensity() {
+        return this.density.clone();
+    }
+
+    /** counts the notes sounding between every start and end */
+    private void sweep(NoteStore store) {
+        //tick, then ends before starts so touching notes do not overlap, then channel
+        long[] events = new long[2 * store.liveCount()];
+        int count = 0;
+        int endTick = 0;
+        for (int id = store.nextLive(0); id >= 0; id = store.nextLive(id + 1)) {
+            int start = store.getStartTick(id);
+            int end = start + store.getDuration(id);
+            int channel = store.getChannel(id);
+            events[count++] = ((long) start << 5) | (1 << 4) | channel;
+            events[count++] = ((long) end << 5) | channel;
+            endTick = Math.max(endTick, end);
+        }
+        Arrays.sort(events, 0, count);
+
+        this.density = new int[endTick / this.binTicks + 1];
+        int[] sounding = new int[CHANNEL_COUNT];
+        int total = 0;
+        int lastTick = 0;
+        for (int i = 0; i < count; i++) {
+            int tick = (int) (events[i] >>> 5);
+            int channel = (int) (events[i] & 0xF);
+            if (tick > lastTick && total > 0) {
+                //the count held from lastTick up to this tick
+                for (int bin = lastTick / this.binTicks; bin <= (tick - 1) / this.binTicks; bin++) {
+                    this.density[bin] = Math.max(this.density[bin], total);
+                }
+            }
+            lastTick = tick;
+            if ((events[i] & (1 << 4)) == 0) {
+                sounding[channel]--;
+                total--;
+                continue;
+            }
+            sounding[channel]++;
+            total++;
+            if (sounding[channel] > this.channelPeaks[channel]) {
+                this.channelPeaks[channel] = sounding[channel];
+                this.channelPeakTicks[channel] = tick;
+            }
+            if (total > this.peak) {
+                this.peak = total;
+                this.peakTick = tick;
+            }
+        }
+    }
+}
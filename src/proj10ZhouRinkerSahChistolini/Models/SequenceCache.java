@@ -0,0 +1,98 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.Sequence;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Remembers the sequences compiled for playing, keyed by the version of
+ * the composition they were compiled from and by the notes and offset
+ * they hold. Playing the same notes again before the composition changes
+ * reuses the compiled sequence instead of building it again. Entries of
+ * older versions can never be used again, so they are dropped as soon
+ * as a newer version is stored, and only the few most recent entries of
+ * the current version are kept.
+ */
+public class SequenceCache {
+    /** the largest number of sequences kept */
+    private static final int CAPACITY = 4;
+
+    /** the version of the entries */
+    private long version = -1;
+    /** the compiled sequences, least recently used first */
+    private LinkedHashMap<Key, Sequence> entries = new LinkedHashMap<>(8, 0.75f, true);
+
+    /**
+     * returns the sequence compiled from the given notes at the given
+     * version, or null if there is none
+     * @param version the version of the composition
+     * @param ids the ids of the notes, null for the whole composition
+     * @param offset the number of ticks the notes were shifted left
+     */
+    public Sequence get(long version, BitSet ids, int offset) {
+        if (version != this.version) {
+            return null;
+        }
+        return this.entries.get(new Key(ids, offset));
+    }
+
+    /**
+     * Stores a compiled sequence
+     * @param version the version of the composition it was compiled from
+     * @param ids the ids of the notes, null for the whole composition
+     * @param offset the number of ticks the notes were shifted left
+     * @param sequence the compiled sequence
+     */
+    public void put(long version, BitSet ids, int offset, Sequence sequence) {
+        if (version != this.version) {
+            this.entries.clear();
+            this.version = version;
+        }
+        this.entries.put(new Key((ids == null) ? null : (BitSet) ids.clone(), offset), sequence);
+        Iterator<Map.Entry<Key, Sequence>> eldest = this.entries.entrySet().iterator();
+        while (this.entries.size() > CAPACITY) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops every sequence
+     */
+    public void clear() {
+        this.entries.clear();
+        this.version = -1;
+    }
+
+    /**
+     * The notes and offset a sequence was compiled from
+     */
+    private static class Key {
+        /** the ids of the notes, null for the whole composition */
+        private final BitSet ids;
+        /** the number of ticks the notes were shifted left */
+        private final int offset;
+
+        Key(BitSet ids, int offset) {
+            this.ids = ids;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.offset == other.offset && Objects.equals(this.ids, other.ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(this.ids) + this.offset;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A midi Sequence kept in step with the live notes of a NoteStore.
+ * The sequence has one track for the tempo and one track for each span
+ * of SPAN_BEATS beats holding notes, with the notes starting in that
+ * span; the sequencer merges the tracks as it plays. The store reports
+ * every note whose values or liveness change, and only the spans the
+ * note left and entered are marked dirty, so editing costs nothing
+ * here. When the sequence is next asked for, the dirty spans alone are
+ * built again from the time index of the store, on every core when
+ * they hold many notes, and a new sequence is made holding those
+ * tracks and the unchanged tracks of the last one. Bringing in an edit
+ * therefore costs time in the notes of the spans it touched, not in
+ * the length of the composition. A track once handed out is never
+ * changed, so a sequence can be played or written on another thread
+ * while the notes are edited.
+ *
+ * Each span is written as EventBuffer writes it: at the same tick
+ * program changes, then note offs, then note ons, and a program change
+ * only where the instrument of a channel changes, the first one of
+ * each channel going at the start of the span. The tracks are in span
+ * order, so where two spans have events at the same tick the earlier
+ * span's go first.
+ */
+public class SequenceSync {
+    /** the number of beats in each span */
+    private static final int SPAN_BEATS = 32;
+
+    /** the store the sequence follows */
+    private NoteStore store;
+    /** writes the dirty spans, on every core when there are many notes */
+    private ParallelSequenceBuilder builder = new ParallelSequenceBuilder();
+    /** the number of ticks per beat */
+    private int resolution;
+    /** the number of ticks in each span */
+    private int spanTicks;
+    /** the sequence built by the last flush, null when it must be built */
+    private Sequence sequence;
+    /** the tempo track of that sequence */
+    private Track tempoTrack;
+    /** the track of each span, null for a span without notes */
+    private Track[] spanTracks = new Track[0];
+    /** the number of notes in each span */
+    private int[] spanNotes = new int[0];
+    /** the number of program changes in each span */
+    private int[] spanPrograms = new int[0];
+    /** the sorted ticks of the sounding note ons of each span, null for none */
+    private int[][] spanOnTicks = new int[0][];
+    /** the ticks of every span joined, null until asked for after a flush */
+    private int[] noteOnTicks;
+    /** the span each note was last counted in, -1 for none */
+    private int[] noteSpans = new int[0];
+    /** the spans changed since the last flush */
+    private BitSet dirty = new BitSet();
+    /** the tempo of the composition, null for none */
+    private TempoMap tempoMap;
+    /** whether the tempo changed since the last flush */
+    private boolean tempoDirty;
+    /** the number of notes in the sequence */
+    private int noteCount;
+    /** the number of program changes in the sequence */
+    private int programChangeCount;
+    /** the ids of the notes of the span being gathered */
+    private int[] gathered = new int[64];
+    /** the number of ids gathered */
+    private int gatheredCount;
+
+    /**
+     * Creates a sequence following the given store
+     * @param store the store holding the notes
+     * @param resolution the number of ticks per beat
+     */
+    public SequenceSync(NoteStore store, int resolution) {
+        this.store = store;
+        this.resolution = resolution;
+        this.spanTicks = SPAN_BEATS * resolution;
+        this.reset();
+    }
+
+    /**
+     * returns the sequence holding the live notes, first bringing in
+     * the notes changed since it was last asked for. The sequence
+     * returned is never changed afterwards.
+     */
+    public Sequence getSequence() {
+        this.flush();
+        return this.sequence;
+    }
+
+    /**
+     * Marks the spans a note was in and is now in as changed, so they
+     * are built again the next time the sequence is asked for
+     * @param id the id of the note which changed
+     */
+    public void sync(int id) {
+        if (id >= this.noteSpans.length) {
+            int length = Math.max(id + 1, this.noteSpans.length * 2);
+            int oldLength = this.noteSpans.length;
+            this.noteSpans = Arrays.copyOf(this.noteSpans, length);
+            Arrays.fill(this.noteSpans, oldLength, length, -1);
+        }
+        if (this.noteSpans[id] >= 0) {
+            this.dirty.set(this.noteSpans[id]);
+        }
+        int span = this.store.isLive(id) ? this.spanOf(this.store.getStartTick(id)) : -1;
+        if (span >= 0) {
+            this.dirty.set(span);
+        }
+        this.noteSpans[id] = span;
+    }
+
+    /**
+     * Sets the tempo map whose events are written to the sequence, and
+     * marks it as changed
+     * @param tempoMap the tempo of the composition
+     */
+    public void syncTempo(TempoMap tempoMap) {
+        this.tempoMap = tempoMap;
+        this.tempoDirty = true;
+    }
+
+    /**
+     * returns the number of notes in the sequence
+     */
+    public int getNoteCount() {
+        this.flush();
+        return this.noteCount;
+    }
+
+    /**
+     * returns the number of program changes in the sequence
+     */
+    public int getProgramChangeCount() {
+        this.flush();
+        return this.programChangeCount;
+    }
+
+    /**
+     * returns the ticks of the note ons of the sequence which sound,
+     * that is have a volume above 0, in the order the sequencer plays
+     * them. The array must not be changed.
+     */
+    public int[] getNoteOnTicks() {
+        this.flush();
+        if (this.noteOnTicks == null) {
+            int count = 0;
+            for (int[] ticks : this.spanOnTicks) {
+                count += (ticks == null) ? 0 : ticks.length;
+            }
+            this.noteOnTicks = new int[count];
+            count = 0;
+            for (int[] ticks : this.spanOnTicks) {
+                if (ticks != null) {
+                    System.arraycopy(ticks, 0, this.noteOnTicks, count, ticks.length);
+                    count += ticks.length;
+                }
+            }
+        }
+        return this.noteOnTicks;
+    }
+
+    /**
+     * returns the average number of midi events per note, 0 when
+     * there are no notes
+     */
+    public double getEventsPerNote() {
+        int noteCount = this.getNoteCount();
+        if (noteCount == 0) {
+            return 0;
+        }
+        return (2.0 * noteCount + this.programChangeCount) / noteCount;
+    }
+
+    /**
+     * Drops every event and starts over with an empty sequence
+     */
+    public void reset() {
+        this.sequence = null;
+        this.tempoTrack = null;
+        this.spanTracks = new Track[0];
+        this.spanNotes = new int[0];
+        this.spanPrograms = new int[0];
+        this.spanOnTicks = new int[0][];
+        this.noteOnTicks = null;
+        this.noteSpans = new int[0];
+        this.dirty.clear();
+        this.noteCount = 0;
+        this.programChangeCount = 0;
+        this.tempoDirty = this.tempoMap != null;
+    }
+
+    /**
+     * Builds the dirty spans again and makes a new sequence of the
+     * tracks of every span
+     */
+    private void flush() {
+        if (this.sequence != null && this.dirty.isEmpty() && !this.tempoDirty) {
+            return;
+        }
+        int spanCount = Math.max(this.spanTracks.length, this.dirty.length());
+        if (spanCount > this.spanTracks.length) {
+            this.spanTracks = Arrays.copyOf(this.spanTracks, spanCount);
+            this.spanNotes = Arrays.copyOf(this.spanNotes, spanCount);
+            this.spanPrograms = Arrays.copyOf(this.spanPrograms, spanCount);
+            this.spanOnTicks = Arrays.copyOf(this.spanOnTicks, spanCount);
+        }
+        SpanSequence next = SpanSequence.create(this.resolution);
+        if (this.tempoTrack == null || this.tempoDirty) {
+            this.tempoTrack = next.createTrack();
+            if (this.tempoMap != null) {
+                this.tempoMap.writeTo(this.tempoTrack, 0);
+            }
+        } else {
+            next.addTrack(this.tempoTrack);
+        }
+        //gather the notes of the dirty spans and make their tracks in span order
+        int dirtyCount = this.dirty.cardinality();
+        int[] spans = new int[dirtyCount];
+        int[][] ids = new int[dirtyCount][];
+        int[] programTicks = new int[dirtyCount];
+        Track[] tracks = new Track[dirtyCount];
+        int built = 0;
+        for (int span = 0; span < spanCount; span++) {
+            if (this.dirty.get(span)) {
+                this.noteCount -= this.spanNotes[span];
+                this.programChangeCount -= this.spanPrograms[span];
+                this.spanTracks[span] = null;
+                this.spanNotes[span] = 0;
+                this.spanPrograms[span] = 0;
+                this.spanOnTicks[span] = null;
+                int[] spanIds = this.gather(span);
+                if (spanIds.length > 0) {
+                    spans[built] = span;
+                    ids[built] = spanIds;
+                    programTicks[built] = span * this.spanTicks;
+                    tracks[built] = next.createTrack();
+                    built++;
+                }
+            } else if (this.spanTracks[span] != null) {
+                next.addTrack(this.spanTracks[span]);
+            }
+        }
+        int[] programChanges = this.builder.buildTracks(this.store,
+                Arrays.copyOf(ids, built), Arrays.copyOf(programTicks, built),
+                Arrays.copyOf(tracks, built));
+        for (int i = 0; i < built; i++) {
+            int span = spans[i];
+            this.spanTracks[span] = tracks[i];
+            this.spanNotes[span] = ids[i].length;
+            this.spanPrograms[span] = programChanges[i];
+            this.spanOnTicks[span] = this.onTicks(ids[i]);
+            this.noteCount += ids[i].length;
+            this.programChangeCount += programChanges[i];
+        }
+        this.dirty.clear();
+        this.tempoDirty = false;
+        this.noteOnTicks = null;
+        this.sequence = next;
+    }
+
+    /** returns the ids of the live notes starting in a span */
+    private int[] gather(int span) {
+        this.gatheredCount = 0;
+        int fromTick = (span == 0) ? Integer.MIN_VALUE : span * this.spanTicks;
+        this.store.getTimeIndex().forEachStartingIn(fromTick, (span + 1) * this.spanTicks,
+                                                    this::gatherId);
+        return Arrays.copyOf(this.gathered, this.gatheredCount);
+    }
+
+    /** returns the sorted ticks of the sounding note ons of the notes */
+    private int[] onTicks(int[] ids) {
+        int[] ticks = new int[ids.length];
+        int count = 0;
+        for (int id : ids) {
+            if (this.store.getVolume(id) > 0) {
+                ticks[count++] = Math.max(0, this.store.getStartTick(id));
+            }
+        }
+        Arrays.sort(ticks, 0, count);
+        return Arrays.copyOf(ticks, count);
+    }
+
+    /** adds an id to the notes of the span being gathered */
+    private void gatherId(int id) {
+        if (this.gatheredCount == this.gathered.length) {
+            this.gathered = Arrays.copyOf(this.gathered, this.gatheredCount * 2);
+        }
+        this.gathered[this.gatheredCount++] = id;
+    }
+
+    /** returns the span a note starting at the tick is written in */
+    private int spanOf(int tick) {
+        return Math.max(0, tick) / this.spanTicks;
+    }
+
+    /**
+     * A sequence which can hold tracks made for an earlier sequence, so
+     * the tracks of the spans which did not change are shared rather
+     * than copied
+     */
+    private static class SpanSequence extends Sequence {
+
+        private SpanSequence(int resolution) throws InvalidMidiDataException {
+            super(PPQ, resolution);
+        }
+
+        /** returns a sequence without tracks */
+        static SpanSequence create(int resolution) {
+            try {
+                return new SpanSequence(resolution);
+            } catch (InvalidMidiDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /** adds a track of an earlier sequence after the tracks held */
+        void addTrack(Track track) {
+            this.tracks.add(track);
+        }
+    }
+}
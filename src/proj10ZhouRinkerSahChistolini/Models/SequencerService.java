@@ -0,0 +1,134 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Synthesizer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Owns the one midi sequencer and the one synthesizer used by the
+ * application. Opening a synthesizer takes a long time and starts a
+ * thread, so each device is opened the first time it is asked for and
+ * then shared until close() is called on shutdown. The sequencer plays
+ * through the shared synthesizer, so other players can send to the
+ * same synthesizer directly.
+ */
+public class SequencerService {
+    /** the audio buffer the synthesizer is asked for, short so previews sound quickly */
+    private static final long LATENCY_MICROS = 15000;
+
+    /** the shared service */
+    private static final SequencerService INSTANCE = new SequencerService();
+
+    /** the open sequencer, null until first requested or after closing */
+    private Sequencer sequencer;
+    /** the open synthesizer, null until first requested or after closing */
+    private Synthesizer synthesizer;
+    /** the number of devices opened by this service and not yet closed */
+    private int openDeviceCount;
+    /** passes the messages of the sequencer on to the synthesizer */
+    private TimingReceiver timingReceiver;
+
+    private SequencerService() {
+        this.openDeviceCount = 0;
+        this.timingReceiver = new TimingReceiver();
+    }
+
+    /**
+     * returns the shared service
+     */
+    public static SequencerService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * returns the shared sequencer, opening it if it is not open yet
+     * @throws MidiUnavailableException if the device cannot be opened
+     */
+    public synchronized Sequencer getSequencer() throws MidiUnavailableException {
+        if (this.sequencer == null || !this.sequencer.isOpen()) {
+            if (this.sequencer != null) {
+                //closed behind our back
+                this.openDeviceCount--;
+            }
+            Sequencer sequencer = MidiSystem.getSequencer(false); // factory
+            this.timingReceiver.setReceiver(this.getSynthesizer().getReceiver());
+            sequencer.getTransmitter().setReceiver(this.timingReceiver);
+            sequencer.open();
+            this.sequencer = sequencer;
+            this.openDeviceCount++;
+        }
+        return this.sequencer;
+    }
+
+    /**
+     * returns the receiver between the sequencer and the synthesizer,
+     * which can time the messages the sequencer delivers
+     */
+    public TimingReceiver getTimingReceiver() {
+        return this.timingReceiver;
+    }
+
+    /**
+     * returns the shared synthesizer, opening it if it is not open yet
+     * @throws MidiUnavailableException if the device cannot be opened
+     */
+    public synchronized Synthesizer getSynthesizer() throws MidiUnavailableException {
+        if (this.synthesizer == null || !this.synthesizer.isOpen()) {
+            if (this.synthesizer != null) {
+                //closed behind our back
+                this.openDeviceCount--;
+            }
+            Synthesizer synthesizer = MidiSystem.getSynthesizer();
+            Map<String, Object> info = new HashMap<>();
+            info.put("latency", LATENCY_MICROS);
+            AudioSynthesizers.open(synthesizer, info);
+            this.synthesizer = synthesizer;
+            this.openDeviceCount++;
+        }
+        return this.synthesizer;
+    }
+
+    /**
+     * returns the time, in microseconds, between a message reaching the
+     * shared synthesizer and it being heard, 0 when it is not open
+     */
+    public synchronized long getLatencyMicros() {
+        if (this.synthesizer == null || !this.synthesizer.isOpen()) {
+            return 0;
+        }
+        return this.synthesizer.getLatency();
+    }
+
+    /**
+     * Stops and closes the sequencer and the synthesizer. A later call
+     * to getSequencer() or getSynthesizer() opens new ones.
+     */
+    public synchronized void close() {
+        if (this.sequencer != null) {
+            if (this.sequencer.isOpen()) {
+                this.sequencer.stop();
+                this.sequencer.close();
+                this.openDeviceCount--;
+            }
+            this.sequencer = null;
+        }
+        if (this.synthesizer != null) {
+            if (this.synthesizer.isOpen()) {
+                this.synthesizer.close();
+                this.openDeviceCount--;
+            }
+            this.synthesizer = null;
+        }
+    }
+
+    /**
+     * returns the number of devices currently opened by this service,
+     * which stays at two however many players are made
+     */
+    public synchronized int getOpenDeviceCount() {
+        return this.openDeviceCount;
+    }
+}
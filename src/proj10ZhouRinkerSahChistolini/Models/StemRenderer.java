@@ -0,0 +1,346 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Renders every instrument of a Sequence to its own WAV file, one
+ * worker per instrument, each with its own synthesizer from WavRenderer.
+ * An instrument is a channel and the program set on it, as several
+ * instruments may share a channel and switch its program as they play,
+ * so the notes of a channel are split by the program set when each
+ * starts. The stems can also be summed into a mixed master in a single
+ * pass over the files.
+ */
+public class StemRenderer {
+    /** the number of frames mixed at a time */
+    private static final int MIX_FRAMES = 4096;
+    /** the number of midi channels */
+    private static final int CHANNEL_COUNT = 16;
+    /** the number of midi programs, and of keys on a channel */
+    private static final int PROGRAM_COUNT = 128;
+
+    /** renders each stem */
+    private WavRenderer renderer;
+    /** the number of bits per sample */
+    private int sampleBits;
+    /** the number of stems rendered at the same time */
+    private int threads;
+
+    /**
+     * Creates a renderer using one thread per core
+     * @param sampleBits the number of bits per sample, 16 or 24
+     */
+    public StemRenderer(int sampleBits) {
+        this(sampleBits, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a renderer
+     * @param sampleBits the number of bits per sample, 16 or 24
+     * @param threads the number of stems rendered at the same time
+     */
+    public StemRenderer(int sampleBits, int threads) {
+        this.renderer = new WavRenderer(sampleBits);
+        this.sampleBits = sampleBits;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Renders one WAV file per instrument played in the sequence
+     * @param sequence the sequence to render
+     * @param beatsPerMinute the tempo until the first tempo event of the sequence
+     * @param directory the directory to write the files to
+     * @param names gives the file name, without extension, of each
+     *              stem from its stemKey
+     * @param master the file to write the mixed master to, null for none
+     * @return the stem file of each instrument, keyed by stemKey
+     * @throws IOException if a file cannot be written or a stem fails to render
+     */
+    public Map<Integer, File> render(Sequence sequence, int beatsPerMinute, File directory,
+                                     IntFunction<String> names, File master)
+            throws IOException {
+        Map<Integer, Sequence> stems = splitByInstrument(sequence);
+        Map<Integer, File> files = new TreeMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(this.threads, Math.max(1, stems.size())));
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (Map.Entry<Integer, Sequence> stem : stems.entrySet()) {
+                File file = new File(directory, names.apply(stem.getKey()) + ".wav");
+                files.put(stem.getKey(), file);
+                results.add(pool.submit(
+                        () -> this.renderer.render(stem.getValue(), beatsPerMinute, file)));
+            }
+            for (Future<Long> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Stem rendering was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("A stem could not be rendered", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        if (master != null) {
+            this.mix(new ArrayList<>(files.values()), master);
+        }
+        return files;
+    }
+
+    /**
+     * Sums WAV files of the same format into one, clipping samples
+     * which overflow. Shorter files are padded with silence.
+     * @param stems the files to sum
+     * @param master the file to write
+     * @throws IOException if a file cannot be read or written
+     */
+    public void mix(List<File> stems, File master) throws IOException {
+        List<AudioInputStream> inputs = new ArrayList<>();
+        try {
+            long frames = 0;
+            for (File stem : stems) {
+                AudioInputStream input = AudioSystem.getAudioInputStream(stem);
+                inputs.add(input);
+                frames = Math.max(frames, input.getFrameLength());
+            }
+            AudioFormat format = new AudioFormat(44100f, this.sampleBits, 2, true, false);
+            if (!inputs.isEmpty()) {
+                format = inputs.get(0).getFormat();
+            }
+            AudioSystem.write(new AudioInputStream(new MixingStream(inputs, format), format, frames),
+                              AudioFileFormat.Type.WAVE, master);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException("A stem is not a readable WAV file", e);
+        } finally {
+            for (AudioInputStream input : inputs) {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * returns the key of the stem of an instrument
+     * @param channel the midi channel the instrument plays on
+     * @param program the program of the instrument, 0 if the channel
+     *                never sets one
+     */
+    public static int stemKey(int channel, int program) {
+        return channel * PROGRAM_COUNT + program;
+    }
+
+    /**
+     * returns the channel of the stem with the given key
+     */
+    public static int channelOf(int stemKey) {
+        return stemKey / PROGRAM_COUNT;
+    }
+
+    /**
+     * returns the program of the stem with the given key
+     */
+    public static int programOf(int stemKey) {
+        return stemKey % PROGRAM_COUNT;
+    }
+
+    /**
+     * returns a sequence for each instrument, keyed by stemKey, with the
+     * notes played on that channel while that program was set and the
+     * meta events, such as tempo changes, of every channel. Each note
+     * goes to the instrument set when it started, along with its note
+     * off. Each stem sets its program at the start, and the other
+     * messages of a channel, such as controller changes, go to every
+     * stem of the channel.
+     */
+    static Map<Integer, Sequence> splitByInstrument(Sequence sequence) throws IOException {
+        //the events of every track in the order the sequencer plays them
+        List<MidiEvent> events = new ArrayList<>();
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                events.add(track.get(i));
+            }
+        }
+        events.sort(Comparator.comparingLong(MidiEvent::getTick));
+
+        Map<Integer, Sequence> stems = new TreeMap<>();
+        List<MidiEvent> meta = new ArrayList<>();
+        List<List<MidiEvent>> controls = new ArrayList<>();
+        for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+            controls.add(new ArrayList<>());
+        }
+        int[] programs = new int[CHANNEL_COUNT];
+        //the stems of the sounding notes of each channel and key, oldest first
+        Map<Integer, ArrayDeque<Sequence>> sounding = new HashMap<>();
+        try {
+            for (MidiEvent event : events) {
+                MidiMessage message = event.getMessage();
+                if (message instanceof MetaMessage) {
+                    meta.add(event);
+                } else if (message instanceof ShortMessage) {
+                    ShortMessage shortMessage = (ShortMessage) message;
+                    int channel = shortMessage.getChannel();
+                    int command = shortMessage.getCommand();
+                    Integer note = channel * PROGRAM_COUNT + shortMessage.getData1();
+                    if (command == ShortMessage.PROGRAM_CHANGE) {
+                        programs[channel] = shortMessage.getData1();
+                    } else if (command == ShortMessage.NOTE_ON && shortMessage.getData2() > 0) {
+                        int key = stemKey(channel, programs[channel]);
+                        Sequence stem = stems.get(key);
+                        if (stem == null) {
+                            stem = new Sequence(sequence.getDivisionType(),
+                                                sequence.getResolution(), 1);
+                            //set first, so it goes before the notes at tick 0
+                            ShortMessage program = new ShortMessage();
+                            program.setMessage(ShortMessage.PROGRAM_CHANGE, channel,
+                                               programs[channel], 0);
+                            stem.getTracks()[0].add(new MidiEvent(program, 0));
+                            stems.put(key, stem);
+                        }
+                        stem.getTracks()[0].add(event);
+                        sounding.computeIfAbsent(note, k -> new ArrayDeque<>()).add(stem);
+                    } else if (command == ShortMessage.NOTE_ON
+                               || command == ShortMessage.NOTE_OFF) {
+                        ArrayDeque<Sequence> started = sounding.get(note);
+                        if (started != null && !started.isEmpty()) {
+                            started.poll().getTracks()[0].add(event);
+                        }
+                    } else {
+                        controls.get(channel).add(event);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Sequence> stem : stems.entrySet()) {
+                Track track = stem.getValue().getTracks()[0];
+                for (MidiEvent event : controls.get(channelOf(stem.getKey()))) {
+                    track.add(event);
+                }
+                for (MidiEvent event : meta) {
+                    track.add(event);
+                }
+            }
+        } catch (InvalidMidiDataException e) {
+            throw new IOException("The sequence has an invalid timing", e);
+        }
+        return stems;
+    }
+
+    /**
+     * Reads the sum of several PCM streams of the same format
+     */
+    private static class MixingStream extends InputStream {
+        /** the streams being summed */
+        private final List<AudioInputStream> inputs;
+        /** the number of bytes per sample */
+        private final int sampleBytes;
+        /** the block read from one input */
+        private final byte[] block;
+        /** the running sums of the current block */
+        private final int[] sums;
+        /** the mixed block being handed out */
+        private final byte[] mixed;
+        /** the number of bytes of the mixed block */
+        private int mixedLength;
+        /** the next byte of the mixed block to hand out */
+        private int position;
+
+        MixingStream(List<AudioInputStream> inputs, AudioFormat format) {
+            this.inputs = inputs;
+            this.sampleBytes = format.getSampleSizeInBits() / 8;
+            int blockBytes = MIX_FRAMES * format.getFrameSize();
+            this.block = new byte[blockBytes];
+            this.sums = new int[blockBytes / this.sampleBytes];
+            this.mixed = new byte[blockBytes];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return (this.read(one, 0, 1) < 0) ? -1 : (one[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (this.position == this.mixedLength && !this.mixBlock()) {
+                return -1;
+            }
+            int count = Math.min(length, this.mixedLength - this.position);
+            System.arraycopy(this.mixed, this.position, buffer, offset, count);
+            this.position += count;
+            return count;
+        }
+
+        /** sums the next block of every input, returns false at the end */
+        private boolean mixBlock() throws IOException {
+            Arrays.fill(this.sums, 0);
+            int longest = 0;
+            for (AudioInputStream input : this.inputs) {
+                int read = readFully(input, this.block);
+                longest = Math.max(longest, read);
+                for (int i = 0; i < read / this.sampleBytes; i++) {
+                    this.sums[i] += this.sample(i * this.sampleBytes);
+                }
+            }
+            int max = (1 << (this.sampleBytes * 8 - 1)) - 1;
+            int samples = longest / this.sampleBytes;
+            for (int i = 0; i < samples; i++) {
+                int sample = Math.max(-max - 1, Math.min(max, this.sums[i]));
+                for (int b = 0; b < this.sampleBytes; b++) {
+                    this.mixed[i * this.sampleBytes + b] = (byte) (sample >> (8 * b));
+                }
+            }
+            this.mixedLength = samples * this.sampleBytes;
+            this.position = 0;
+            return this.mixedLength > 0;
+        }
+
+        /** returns the little endian signed sample at a byte of the block */
+        private int sample(int at) {
+            int value = 0;
+            for (int b = 0; b < this.sampleBytes; b++) {
+                value |= (this.block[at + b] & 0xFF) << (8 * b);
+            }
+            int shift = 32 - 8 * this.sampleBytes;
+            return (value << shift) >> shift;
+        }
+
+        /** reads until the block is full or the input ends */
+        private static int readFully(InputStream input, byte[] block) throws IOException {
+            int total = 0;
+            while (total < block.length) {
+                int read = input.read(block, total, block.length - total);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javafx.animation.AnimationTimer;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Plays the live notes of a NoteStore without building a Sequence. On
+ * every frame the notes starting in the next half second are read from
+ * the time index of the store through an EventBuffer, which leaves out
+ * the program changes not needed, and every event falling in that
+ * window is sent to the synthesizer at once, time stamped with when it
+ * should sound. The synthesizer then plays them on time even if the
+ * frames stall for up to the length of the window. Playback starts at
+ * once however long the composition is, and only the notes of the look
+ * ahead window are held in memory.
+ *
+ * The player runs on the JavaFX application thread, the same thread
+ * that edits the notes, so it reads the store without locking.
+ */
+public class StreamingPlayer {
+    /** how far ahead of the playing position notes are read and sent */
+    private static final long LOOK_AHEAD_MICROS = 500000;
+    /** the delay between pressing play and the first tick */
+    private static final long START_DELAY_MICROS = 20000;
+    /** the control change which silences every note of a channel */
+    private static final int ALL_NOTES_OFF = 123;
+    /** the number of midi channels */
+    private static final int CHANNEL_COUNT = 16;
+
+    /** the store holding the notes */
+    private NoteStore store;
+    /** the tempo of the notes */
+    private TempoMap tempoMap;
+    /** the synthesizer the events are sent to */
+    private Synthesizer synthesizer;
+    /** the receiver of the synthesizer */
+    private Receiver receiver;
+    /** the packed events read but not yet sent, in tick order */
+    private PriorityQueue<Long> pending;
+    /** the events of the notes entering the look ahead window */
+    private EventBuffer window;
+    /** the note ons sent which may not have sounded yet, oldest first */
+    private ArrayDeque<ShortMessage> sentOns;
+    /** the time stamp of each of those note ons */
+    private ArrayDeque<Long> sentOnMicros;
+    /** the first tick whose notes have not been read yet */
+    private int readTick;
+    /** the tick playback started from, or was last rebased at */
+    private int baseTick;
+    /** the synthesizer time of baseTick */
+    private long baseMicros;
+    /** the time stamp of the last event sent */
+    private long lastSentMicros;
+    /** the instrument of each channel after the events read, -1 for none */
+    private int[] programs;
+    /** calls pump on every frame while playing */
+    private AnimationTimer timer;
+    /** whether the player is playing */
+    private boolean playing;
+
+    /**
+     * Creates a player for the notes of a store
+     * @param store the store holding the notes
+     * @param tempoMap the tempo of the notes
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     */
+    public StreamingPlayer(NoteStore store, TempoMap tempoMap)
+            throws MidiUnavailableException {
+        this.store = store;
+        this.tempoMap = tempoMap;
+        this.synthesizer = SequencerService.getInstance().getSynthesizer();
+        this.receiver = this.synthesizer.getReceiver();
+        this.pending = new PriorityQueue<>();
+        this.window = new EventBuffer(64);
+        this.sentOns = new ArrayDeque<>();
+        this.sentOnMicros = new ArrayDeque<>();
+        this.programs = new int[CHANNEL_COUNT];
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                pump();
+            }
+        };
+    }
+
+    /**
+     * Starts playing the notes from the given tick
+     * @param fromTick the tick to start at
+     */
+    public void play(int fromTick) {
+        this.stop();
+        Arrays.fill(this.programs, -1);
+        this.readTick = fromTick;
+        this.baseTick = fromTick;
+        this.baseMicros = this.synthesizer.getMicrosecondPosition() + START_DELAY_MICROS;
+        this.lastSentMicros = this.baseMicros;
+        this.playing = true;
+        this.pump();
+        this.timer.start();
+    }
+
+    /**
+     * Stops playing and silences every sounding note. The notes sent
+     * ahead are each ended at the time they start, so nothing sent
+     * after this, such as a new play, is cut short.
+     */
+    public void stop() {
+        this.timer.stop();
+        this.pending.clear();
+        if (this.playing) {
+            this.playing = false;
+            for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+                try {
+                    ShortMessage message = new ShortMessage();
+                    message.setMessage(ShortMessage.CONTROL_CHANGE, channel, ALL_NOTES_OFF, 0);
+                    this.receiver.send(message, -1);
+                } catch (InvalidMidiDataException e) {
+                    e.printStackTrace();
+                }
+            }
+            this.forgetSounded(this.synthesizer.getMicrosecondPosition());
+            while (!this.sentOns.isEmpty()) {
+                ShortMessage on = this.sentOns.poll();
+                try {
+                    ShortMessage off = new ShortMessage();
+                    off.setMessage(ShortMessage.NOTE_OFF, on.getChannel(), on.getData1(), 0);
+                    //the synthesizer plays events of equal time stamps in the order sent
+                    this.receiver.send(off, this.sentOnMicros.poll());
+                } catch (InvalidMidiDataException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        this.sentOns.clear();
+        this.sentOnMicros.clear();
+    }
+
+    /**
+     * returns whether the player is playing
+     */
+    public boolean isPlaying() {
+        return this.playing;
+    }
+
+    /**
+     * returns the tick being played, the start tick when not playing
+     */
+    public int getTickPosition() {
+        if (!this.playing) {
+            return this.baseTick;
+        }
+        return Math.max(this.baseTick,
+                        this.toTick(this.synthesizer.getMicrosecondPosition()));
+    }
+
+    /**
+     * returns the time of the notes, in microseconds from their start,
+     * being sent to the synthesizer now
+     */
+    public long getMicrosecondPosition() {
+        double baseTime = this.tempoMap.toMicros(this.baseTick);
+        if (!this.playing) {
+            return (long) baseTime;
+        }
+        long elapsed = this.synthesizer.getMicrosecondPosition() - this.baseMicros;
+        return (long) (baseTime + Math.max(0, elapsed));
+    }
+
+    /**
+     * Anchors the playing position to the current time. Call this just
+     * before editing the tempo map, so the edit takes effect from the
+     * tick being played rather than moving it. The events already sent
+     * keep their times, so the edit is heard once they have played.
+     */
+    public void rebase() {
+        if (this.playing) {
+            long now = this.synthesizer.getMicrosecondPosition();
+            this.baseTick = this.toTick(now);
+            this.baseMicros = now;
+        }
+    }
+
+    /**
+     * Reads the notes entering the look ahead window and sends the
+     * events falling in it
+     */
+    private void pump() {
+        if (!this.playing) {
+            return;
+        }
+        long now = this.synthesizer.getMicrosecondPosition();
+        int horizon = this.toTick(now + LOOK_AHEAD_MICROS);
+        if (horizon > this.readTick) {
+            this.window.clear();
+            this.store.getTimeIndex().forEachStartingIn(this.readTick, horizon,
+                    id -> this.window.addNote(this.store, id, 0));
+            this.window.sort();
+            for (long event : this.window.resolvePrograms(this.readTick, this.programs)) {
+                this.pending.add(event);
+            }
+            this.readTick = horizon;
+        }
+        while (!this.pending.isEmpty()) {
+            long event = this.pending.peek();
+            long micros = this.toMicros(EventBuffer.tick(event));
+            if (micros > now + LOOK_AHEAD_MICROS) {
+                break;
+            }
+            this.pending.poll();
+            ShortMessage message = EventBuffer.toMessage(event);
+            this.receiver.send(message, micros);
+            this.lastSentMicros = Math.max(this.lastSentMicros, micros);
+            if (message.getCommand() == ShortMessage.NOTE_ON) {
+                this.sentOns.add(message);
+                this.sentOnMicros.add(micros);
+            }
+        }
+        this.forgetSounded(now);
+        if (this.pending.isEmpty() && this.readTick >= this.store.getTimeIndex().maxEnd()
+                && now >= this.lastSentMicros) {
+            //keep reporting where playback ended
+            this.baseTick = this.toTick(now);
+            this.baseMicros = now;
+            this.timer.stop();
+            this.playing = false;
+        }
+    }
+
+    /** drops the sent note ons which have sounded by the given time */
+    private void forgetSounded(long now) {
+        while (!this.sentOnMicros.isEmpty() && this.sentOnMicros.peek() < now) {
+            this.sentOns.poll();
+            this.sentOnMicros.poll();
+        }
+    }
+
+    /** returns the synthesizer time at which a tick plays */
+    private long toMicros(int tick) {
+        return this.baseMicros
+                + (long) (this.tempoMap.toMicros(tick) - this.tempoMap.toMicros(this.baseTick));
+    }
+
+    /** returns the tick playing at a synthesizer time */
+    private int toTick(long micros) {
+        return (int) this.tempoMap.toTick(
+                micros - this.baseMicros + this.tempoMap.toMicros(this.baseTick));
+    }
+}
@@ -0,0 +1,247 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The tempo of a composition over time: a tempo at tick 0 and any
+ * number of changes at later ticks. Every edit rebuilds a table of the
+ * time, in microseconds, at which each change plays, so converting
+ * between ticks and time is a binary search over the changes and never
+ * a scan of the map.
+ */
+public class TempoMap {
+    /** the tempo meta message type */
+    public static final int TEMPO_META = 0x51;
+
+    /** the number of ticks per beat */
+    private int resolution;
+    /** the microseconds per beat starting at each tick with a change */
+    private TreeMap<Integer, Integer> changes = new TreeMap<>();
+    /** the ticks of the changes, in order, starting with 0 */
+    private long[] ticks;
+    /** the microseconds per beat from each change on */
+    private int[] microsPerBeat;
+    /** the time at which each change plays */
+    private double[] micros;
+    /** called after every edit */
+    private Runnable onChanged;
+
+    /**
+     * Creates a map with a single tempo
+     * @param resolution the number of ticks per beat
+     * @param beatsPerMinute the tempo at tick 0
+     */
+    public TempoMap(int resolution, int beatsPerMinute) {
+        this.resolution = resolution;
+        this.changes.put(0, toMicrosPerBeat(beatsPerMinute));
+        this.rebuild();
+    }
+
+    /**
+     * Creates a map from the tempo meta events of a sequence
+     * @param sequence the sequence to read
+     * @param beatsPerMinute the tempo until the first tempo event
+     * @return the tempo map of the sequence
+     */
+    public static TempoMap read(Sequence sequence, int beatsPerMinute) {
+        TempoMap map = new TempoMap(sequence.getResolution(), beatsPerMinute);
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                MidiMessage message = track.get(i).getMessage();
+                if (message instanceof MetaMessage
+                        && ((MetaMessage) message).getType() == TEMPO_META
+                        && message.getLength() == 6) {
+                    byte[] data = ((MetaMessage) message).getData();
+                    int microsPerBeat = ((data[0] & 0xFF) << 16)
+                            | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+                    map.changes.put((int) track.get(i).getTick(), microsPerBeat);
+                }
+            }
+        }
+        map.rebuild();
+        return map;
+    }
+
+    /**
+     * Sets a method to call after every edit of the map
+     * @param onChanged the method to call
+     */
+    public void setOnChanged(Runnable onChanged) {
+        this.onChanged = onChanged;
+    }
+
+    /**
+     * Sets the tempo at tick 0
+     * @param beatsPerMinute the number of beats per minute
+     */
+    public void setTempo(int beatsPerMinute) {
+        this.setTempo(0, beatsPerMinute);
+    }
+
+    /**
+     * Sets the tempo from the given tick on, until the next change
+     * @param tick the tick of the change
+     * @param beatsPerMinute the number of beats per minute
+     */
+    public void setTempo(int tick, int beatsPerMinute) {
+        this.changes.put(Math.max(0, tick), toMicrosPerBeat(beatsPerMinute));
+        this.rebuild();
+    }
+
+    /**
+     * Removes the tempo change at the given tick. The tempo at tick 0
+     * cannot be removed.
+     * @param tick the tick of the change
+     */
+    public void removeTempo(int tick) {
+        if (tick > 0 && this.changes.remove(tick) != null) {
+            this.rebuild();
+        }
+    }
+
+    /**
+     * Removes every change, keeping the tempo at tick 0
+     */
+    public void clearChanges() {
+        Integer first = this.changes.get(0);
+        this.changes.clear();
+        this.changes.put(0, first);
+        this.rebuild();
+    }
+
+    /**
+     * returns the number of tempos, counting the one at tick 0
+     */
+    public int size() {
+        return this.ticks.length;
+    }
+
+    /**
+     * returns the tempo, in beats per minute, starting at tick 0 and at
+     * each tick with a change
+     */
+    public Map<Integer, Integer> getBeatsPerMinuteByTick() {
+        Map<Integer, Integer> tempos = new TreeMap<>();
+        for (Map.Entry<Integer, Integer> change : this.changes.entrySet()) {
+            tempos.put(change.getKey(), toBeatsPerMinute(change.getValue()));
+        }
+        return tempos;
+    }
+
+    /**
+     * returns the number of microseconds per beat at a tick
+     */
+    public int getMicrosPerBeatAt(double tick) {
+        return this.microsPerBeat[this.indexOfTick(tick)];
+    }
+
+    /**
+     * returns the number of beats per minute at a tick, rounded
+     */
+    public int getBeatsPerMinuteAt(double tick) {
+        return toBeatsPerMinute(this.getMicrosPerBeatAt(tick));
+    }
+
+    /**
+     * returns the time at which a tick plays, from tick 0
+     * @param tick the tick, which may fall between two ticks
+     * @return the time in microseconds
+     */
+    public double toMicros(double tick) {
+        int i = this.indexOfTick(tick);
+        return this.micros[i] + (tick - this.ticks[i]) * this.microsPerBeat[i] / this.resolution;
+    }
+
+    /**
+     * returns the tick playing at a time, from tick 0
+     * @param micros the time in microseconds
+     * @return the tick, which may fall between two ticks
+     */
+    public double toTick(double micros) {
+        int i = Arrays.binarySearch(this.micros, micros);
+        if (i < 0) {
+            i = Math.max(0, -i - 2);
+        }
+        return this.ticks[i] + (micros - this.micros[i]) * this.resolution / this.microsPerBeat[i];
+    }
+
+    /**
+     * Adds a tempo meta event to the track for each tempo from the given
+     * tick on, moved left by that tick. The tempo playing at the offset
+     * is written at tick 0.
+     * @param track the track to add the events to
+     * @param offset the tick which becomes tick 0
+     * @return the events added
+     */
+    public List<MidiEvent> writeTo(Track track, int offset) {
+        List<MidiEvent> events = new ArrayList<>();
+        try {
+            events.add(tempoEvent(this.getMicrosPerBeatAt(offset), 0));
+            for (Map.Entry<Integer, Integer> change
+                    : this.changes.tailMap(offset, false).entrySet()) {
+                events.add(tempoEvent(change.getValue(), change.getKey() - offset));
+            }
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+        for (MidiEvent event : events) {
+            track.add(event);
+        }
+        return events;
+    }
+
+    /** returns the index of the last change at or before a tick */
+    private int indexOfTick(double tick) {
+        int i = Arrays.binarySearch(this.ticks, (long) Math.floor(tick));
+        return (i < 0) ? Math.max(0, -i - 2) : i;
+    }
+
+    /** refills the tables from the changes and reports the edit */
+    private void rebuild() {
+        int size = this.changes.size();
+        this.ticks = new long[size];
+        this.microsPerBeat = new int[size];
+        this.micros = new double[size];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> change : this.changes.entrySet()) {
+            this.ticks[i] = change.getKey();
+            this.microsPerBeat[i] = change.getValue();
+            if (i > 0) {
+                this.micros[i] = this.micros[i - 1] + (this.ticks[i] - this.ticks[i - 1])
+                        * (double) this.microsPerBeat[i - 1] / this.resolution;
+            }
+            i++;
+        }
+        if (this.onChanged != null) {
+            this.onChanged.run();
+        }
+    }
+
+    /** creates a tempo meta event */
+    private static MidiEvent tempoEvent(int microsPerBeat, long tick)
+            throws InvalidMidiDataException {
+        byte[] data = {(byte) (microsPerBeat >> 16), (byte) (microsPerBeat >> 8),
+                       (byte) microsPerBeat};
+        return new MidiEvent(new MetaMessage(TEMPO_META, data, data.length), tick);
+    }
+
+    /** converts beats per minute to microseconds per beat */
+    private static int toMicrosPerBeat(int beatsPerMinute) {
+        return 60000000 / Math.max(1, beatsPerMinute);
+    }
+
+    /** converts microseconds per beat to beats per minute, rounded */
+    private static int toBeatsPerMinute(int microsPerBeat) {
+        return Math.round(60000000f / microsPerBeat);
+    }
+}
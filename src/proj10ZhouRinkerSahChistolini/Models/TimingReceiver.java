@@ -0,0 +1,49 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * Sits between the sequencer and the synthesizer, passing every message
+ * on and reporting the moment it was delivered to the PlaybackStats
+ * listening, if any. With no stats set it only forwards.
+ */
+public class TimingReceiver implements Receiver {
+    /** the receiver messages are passed on to */
+    private volatile Receiver receiver;
+    /** the stats told about each delivery, null if none */
+    private volatile PlaybackStats stats;
+
+    /**
+     * Sets the receiver messages are passed on to
+     * @param receiver the receiver, null to drop the messages
+     */
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * Sets the stats told about each delivery
+     * @param stats the stats, null for none
+     */
+    public void setStats(PlaybackStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        PlaybackStats stats = this.stats;
+        if (stats != null) {
+            stats.delivered(message, System.nanoTime());
+        }
+        Receiver receiver = this.receiver;
+        if (receiver != null) {
+            receiver.send(message, timeStamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.receiver = null;
+    }
+}
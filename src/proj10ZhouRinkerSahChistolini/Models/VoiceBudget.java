@@ -0,0 +1,99 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Keeps the number of notes sounding at once on each channel within a
+ * limit, so a dense composition does not ask the synthesizer for more
+ * voices than it can render without dropouts. The notes of each channel
+ * are swept in order of start tick; whenever one more note would sound
+ * than the limit allows, the quietest of the sounding notes is dropped,
+ * the newest one losing a tie, so notes already sounding keep playing.
+ */
+public class VoiceBudget {
+    /** the largest number of notes sounding at once on one channel */
+    private final int limit;
+    /** the number of notes dropped by the last call to apply */
+    private int droppedCount;
+
+    /**
+     * Creates a budget
+     * @param limit the largest number of notes sounding at once on one channel
+     */
+    public VoiceBudget(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    /**
+     * returns the largest number of notes sounding at once on one channel
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * returns the number of notes dropped by the last call to apply
+     */
+    public int getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * Chooses the notes to play
+     * @param store the store holding the notes
+     * @param ids the ids of the notes wanted
+     * @return the ids of the notes kept, ids itself if none are dropped
+     */
+    public BitSet apply(NoteStore store, BitSet ids) {
+        List<List<Long>> channels = new ArrayList<>();
+        for (int channel = 0; channel < PolyphonyAnalysis.CHANNEL_COUNT; channel++) {
+            channels.add(new ArrayList<>());
+        }
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            channels.get(store.getChannel(id)).add(((long) store.getStartTick(id) << 32) | id);
+        }
+
+        BitSet kept = null;
+        this.droppedCount = 0;
+        for (List<Long> notes : channels) {
+            if (notes.size() <= this.limit) {
+                continue;
+            }
+            notes.sort(null);
+            //end tick, then order, of every note sounding
+            PriorityQueue<Long> byEnd = new PriorityQueue<>();
+            //volume, then newest first, of every note sounding
+            TreeSet<Long> byVolume = new TreeSet<>();
+            long[] volumeKeys = new long[notes.size()];
+            boolean[] dropped = new boolean[notes.size()];
+            for (int order = 0; order < notes.size(); order++) {
+                int id = (int) (long) notes.get(order);
+                int start = store.getStartTick(id);
+                while (!byEnd.isEmpty() && (byEnd.peek() >>> 32) <= start) {
+                    int ended = (int) (long) byEnd.poll();
+                    if (!dropped[ended]) {
+                        byVolume.remove(volumeKeys[ended]);
+                    }
+                }
+                volumeKeys[order] = ((long) store.getVolume(id) << 32)
+                        | (Integer.MAX_VALUE - order);
+                byVolume.add(volumeKeys[order]);
+                byEnd.add(((long) (start + store.getDuration(id)) << 32) | order);
+                if (byVolume.size() > this.limit) {
+                    int victim = Integer.MAX_VALUE - (int) (long) byVolume.pollFirst();
+                    dropped[victim] = true;
+                    if (kept == null) {
+                        kept = (BitSet) ids.clone();
+                    }
+                    kept.clear((int) (long) notes.get(victim));
+                    this.droppedCount++;
+                }
+            }
+        }
+        return (kept == null) ? ids : kept;
+    }
+}
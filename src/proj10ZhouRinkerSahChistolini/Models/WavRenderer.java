@@ -0,0 +1,174 @@
+package proj10ZhouRinkerSahChistolini.Models;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a Sequence to a WAV file without playing it. A private
+ * software synthesizer is opened as an audio stream rather than on a
+ * sound card, every event of the sequence is queued on it with the
+ * time stamp it would play at, and the stream is read into the file as
+ * fast as the synthesizer can fill it. No audio device is needed, so
+ * this also runs headless.
+ */
+public class WavRenderer {
+    /** the time the notes are given to ring out after the last event */
+    private static final long TAIL_MICROS = 2000000;
+
+    /** the number of samples per second */
+    private float sampleRate;
+    /** the number of bits per sample, 16 or 24 */
+    private int sampleBits;
+
+    /**
+     * Creates a renderer writing stereo files at 44.1 kHz
+     * @param sampleBits the number of bits per sample, 16 or 24
+     */
+    public WavRenderer(int sampleBits) {
+        this(44100f, sampleBits);
+    }
+
+    /**
+     * Creates a renderer writing stereo files
+     * @param sampleRate the number of samples per second
+     * @param sampleBits the number of bits per sample, 16 or 24
+     */
+    public WavRenderer(float sampleRate, int sampleBits) {
+        if (sampleBits != 16 && sampleBits != 24) {
+            throw new IllegalArgumentException("Only 16 and 24 bit samples are supported");
+        }
+        this.sampleRate = sampleRate;
+        this.sampleBits = sampleBits;
+    }
+
+    /**
+     * Renders the sequence into a WAV file
+     * @param sequence the sequence to render
+     * @param beatsPerMinute the tempo until the first tempo event of the sequence
+     * @param file the file to write
+     * @return the length of the rendered audio in microseconds
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     * @throws IOException if the file cannot be written, or an
+     *                     InterruptedIOException if the thread is
+     *                     interrupted, in which case the file is deleted
+     */
+    public long render(Sequence sequence, int beatsPerMinute, File file)
+            throws MidiUnavailableException, IOException {
+        AudioFormat format = new AudioFormat(this.sampleRate, this.sampleBits,
+                                             2, true, false);
+        Synthesizer synthesizer = MidiSystem.getSynthesizer();
+        AudioInputStream stream = AudioSynthesizers.openStream(synthesizer, format);
+        try {
+            Receiver receiver = synthesizer.getReceiver();
+            long length = this.queueEvents(sequence, beatsPerMinute, receiver) + TAIL_MICROS;
+            long frames = (long) (length * (double) this.sampleRate / 1000000);
+            try {
+                AudioSystem.write(new AudioInputStream(new InterruptibleStream(stream),
+                                                       format, frames),
+                                  AudioFileFormat.Type.WAVE, file);
+            } catch (InterruptedIOException e) {
+                file.delete();
+                throw e;
+            }
+            return length;
+        } finally {
+            synthesizer.close();
+        }
+    }
+
+    /**
+     * Sends every event of the sequence to the receiver, time stamped
+     * with the time it plays at
+     * @return the time stamp of the last event
+     */
+    private long queueEvents(Sequence sequence, int beatsPerMinute, Receiver receiver) {
+        List<MidiEvent> events = new ArrayList<>();
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                events.add(track.get(i));
+            }
+        }
+        //stable, so events of one tick keep their track order
+        events.sort((a, b) -> Long.compare(a.getTick(), b.getTick()));
+
+        TempoMap tempoMap = TempoMap.read(sequence, beatsPerMinute);
+        long micros = 0;
+        for (MidiEvent event : events) {
+            micros = (long) tempoMap.toMicros(event.getTick());
+            MidiMessage message = event.getMessage();
+            if (!(message instanceof MetaMessage)) {
+                receiver.send(message, micros);
+            }
+        }
+        return micros;
+    }
+
+    /**
+     * Reads from a stream until the reading thread is interrupted, so a
+     * render can be cancelled
+     */
+    private static class InterruptibleStream extends FilterInputStream {
+        InterruptibleStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            this.checkInterrupted();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            this.checkInterrupted();
+            return super.read(buffer, offset, length);
+        }
+
+        /** throws if the thread has been interrupted */
+        private void checkInterrupted() throws InterruptedIOException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Rendering was cancelled");
+            }
+        }
+    }
+
+    /**
+     * Renders a midi file to a WAV file from the command line
+     * @param args the midi file, the WAV file, and optionally the
+     *             tempo in beats per minute (60) and the bits per sample (16)
+     */
+    public static void main(String[] args)
+            throws IOException, InvalidMidiDataException, MidiUnavailableException {
+        if (args.length < 2) {
+            System.err.println("usage: WavRenderer in.mid out.wav [beatsPerMinute] [16|24]");
+            System.exit(1);
+        }
+        int beatsPerMinute = (args.length > 2) ? Integer.parseInt(args[2]) : 60;
+        int sampleBits = (args.length > 3) ? Integer.parseInt(args[3]) : 16;
+        Sequence sequence = MidiSystem.getSequence(new File(args[0]));
+        long start = System.nanoTime();
+        long length = new WavRenderer(sampleBits).render(sequence, beatsPerMinute,
+                                                         new File(args[1]));
+        System.out.printf("rendered %.1f s of audio in %.1f s%n",
+                          length / 1e6, (System.nanoTime() - start) / 1e9);
+    }
+}
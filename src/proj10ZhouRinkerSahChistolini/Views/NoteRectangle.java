@@ -51,9 +51,7 @@ public class NoteRectangle extends SelectableRectangle {
         this.instrument.addListener(e -> {
             getStyleClass().removeAll(this.instrString);
             String newInstrument = instrController.getStyleMappings().get(
-                    instrController.getInstruments().indexOf(
-                            instrController.getInstrument(this.instrument.intValue())
-                    )
+                    instrController.getInstrumentIndex(this.instrument.intValue())
             );
             this.instrString = newInstrument;
             getStyleClass().add(this.instrString);
@@ -0,0 +1,171 @@
+package proj10ZhouRinkerSahChistolini.Views;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.ReadOnlyProperty;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Uniform grid over the composition panel which records the cells each
+ * rectangle covers, so that hit tests only look at the rectangles near
+ * the area being tested. Rectangles are re-placed whenever their
+ * position or size changes.
+ */
+public class RectangleGrid {
+    /** the width of a cell, one beat */
+    private static final double CELL_WIDTH = 100;
+    /** the height of a cell, four pitch rows */
+    private static final double CELL_HEIGHT = 40;
+
+    /** the rectangles found in each non empty cell */
+    private HashMap<Long, HashSet<SelectableRectangle>> cells;
+    /** the first and last column and row covered by each rectangle */
+    private HashMap<SelectableRectangle, int[]> placements;
+    /** re-places a rectangle when one of its bounds changes */
+    private InvalidationListener boundsListener;
+
+    /**
+     * Creates an empty grid
+     */
+    public RectangleGrid() {
+        this.cells = new HashMap<>();
+        this.placements = new HashMap<>();
+        this.boundsListener = observable -> this.update(
+                (SelectableRectangle) ((ReadOnlyProperty<?>) observable).getBean()
+        );
+    }
+
+    /**
+     * Adds a rectangle to the grid and starts following its bounds
+     * @param rectangle the rectangle to add
+     */
+    public void add(SelectableRectangle rectangle) {
+        if (this.placements.containsKey(rectangle)) {
+            return;
+        }
+        rectangle.xProperty().addListener(this.boundsListener);
+        rectangle.yProperty().addListener(this.boundsListener);
+        rectangle.widthProperty().addListener(this.boundsListener);
+        rectangle.heightProperty().addListener(this.boundsListener);
+        this.place(rectangle, this.cellRange(rectangle));
+    }
+
+    /**
+     * Removes a rectangle from the grid
+     * @param rectangle the rectangle to remove
+     */
+    public void remove(SelectableRectangle rectangle) {
+        int[] range = this.placements.remove(rectangle);
+        if (range == null) {
+            return;
+        }
+        rectangle.xProperty().removeListener(this.boundsListener);
+        rectangle.yProperty().removeListener(this.boundsListener);
+        rectangle.widthProperty().removeListener(this.boundsListener);
+        rectangle.heightProperty().removeListener(this.boundsListener);
+        this.unplace(rectangle, range);
+    }
+
+    /**
+     * Moves a rectangle to the cells matching its current bounds
+     * @param rectangle the rectangle which moved or changed size
+     */
+    public void update(SelectableRectangle rectangle) {
+        int[] oldRange = this.placements.get(rectangle);
+        if (oldRange == null) {
+            return;
+        }
+        int[] newRange = this.cellRange(rectangle);
+        if (oldRange[0] != newRange[0] || oldRange[1] != newRange[1]
+                || oldRange[2] != newRange[2] || oldRange[3] != newRange[3]) {
+            this.unplace(rectangle, oldRange);
+            this.place(rectangle, newRange);
+        }
+    }
+
+    /**
+     * Adds every rectangle intersecting the given area to the result
+     * @param x the left of the area
+     * @param y the top of the area
+     * @param width the width of the area
+     * @param height the height of the area
+     * @param result the collection to add the rectangles to
+     */
+    public void query(double x, double y, double width, double height,
+                      Collection<SelectableRectangle> result) {
+        int firstColumn = column(x);
+        int lastColumn = column(x + width);
+        int firstRow = row(y);
+        int lastRow = row(y + height);
+        HashSet<SelectableRectangle> seen = new HashSet<>();
+        for (int c = firstColumn; c <= lastColumn; c++) {
+            for (int r = firstRow; r <= lastRow; r++) {
+                HashSet<SelectableRectangle> cell = this.cells.get(key(c, r));
+                if (cell == null) {
+                    continue;
+                }
+                for (SelectableRectangle rectangle : cell) {
+                    if (seen.add(rectangle)
+                            && rectangle.intersects(x, y, width, height)) {
+                        result.add(rectangle);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * returns the number of rectangles in the grid
+     */
+    public int size() {
+        return this.placements.size();
+    }
+
+    /** returns the columns and rows covered by the rectangle */
+    private int[] cellRange(SelectableRectangle rectangle) {
+        return new int[] {
+                column(rectangle.getX()),
+                column(rectangle.getX() + rectangle.getWidth()),
+                row(rectangle.getY()),
+                row(rectangle.getY() + rectangle.getHeight())
+        };
+    }
+
+    private void place(SelectableRectangle rectangle, int[] range) {
+        for (int c = range[0]; c <= range[1]; c++) {
+            for (int r = range[2]; r <= range[3]; r++) {
+                this.cells.computeIfAbsent(key(c, r), k -> new HashSet<>()).add(rectangle);
+            }
+        }
+        this.placements.put(rectangle, range);
+    }
+
+    private void unplace(SelectableRectangle rectangle, int[] range) {
+        for (int c = range[0]; c <= range[1]; c++) {
+            for (int r = range[2]; r <= range[3]; r++) {
+                Long key = key(c, r);
+                HashSet<SelectableRectangle> cell = this.cells.get(key);
+                if (cell != null) {
+                    cell.remove(rectangle);
+                    if (cell.isEmpty()) {
+                        this.cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int column(double x) {
+        return (int) Math.floor(x / CELL_WIDTH);
+    }
+
+    private static int row(double y) {
+        return (int) Math.floor(y / CELL_HEIGHT);
+    }
+
+    private static Long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+}
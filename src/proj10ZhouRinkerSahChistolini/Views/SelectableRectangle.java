@@ -22,7 +22,7 @@ import javafx.scene.transform.Transform;
  */
 public abstract class SelectableRectangle extends Rectangle {
     /** keeps track of whether the rectangle is selected */
-    protected SimpleBooleanProperty selected = new SimpleBooleanProperty();
+    protected SimpleBooleanProperty selected = new SimpleBooleanProperty(this, "selected");
     /** keeps track of whether the rectangle is bounded */
 
     /**
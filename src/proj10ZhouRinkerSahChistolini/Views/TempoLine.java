@@ -1,30 +1,106 @@
 package proj10ZhouRinkerSahChistolini.Views;
 
+import javafx.animation.AnimationTimer;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.scene.shape.Line;
-import javafx.util.Duration;
-import javafx.animation.TranslateTransition;
-import javafx.animation.Interpolator;
 import javafx.beans.property.BooleanProperty;
 
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * The playhead. On every pulse it samples the tick being played and
+ * moves to it, interpolating at the tempo between samples, since the
+ * sequencer's position only changes as it processes events. The line
+ * therefore follows the audio however long the composition is, whatever
+ * the load on the FX thread, and after tempo changes.
+ */
 public class TempoLine extends Line {
-    private TranslateTransition tempoAnimation = new TranslateTransition();
+    /** the number of ticks per beat, one tick per pixel */
+    private static final int TICKS_PER_BEAT = 100;
+    /** the longest time the line moves ahead of a position which stopped changing */
+    private static final long MAX_INTERPOLATION_NANOS = 100000000;
+
+    /** moves the line on every pulse while playing */
+    private AnimationTimer tempoAnimation;
 
     private BooleanProperty isPlaying = new SimpleBooleanProperty();
+
+    /** gives the tick being played, null to follow the clock only */
+    private IntSupplier tickSource;
+    /** gives the time being heard, null to not measure the skew */
+    private LongSupplier audioSource;
+    /** the tick the animation stops at */
+    private double stopTick;
+    /** the first tick of the loop region, -1 when not looping */
+    private double loopStart = -1;
+    /** the tick at which the line wraps back to loopStart */
+    private double loopEnd = -1;
+    /** the zoom factor the ticks are drawn with */
+    private double zoomFactor = 1;
+    /** the number of beats per minute, when there is no tempo map */
+    private int tempo = 60;
+    /** converts a tick to the time it plays at, null for a single tempo */
+    private DoubleUnaryOperator tickToMicros;
+    /** converts a time to the tick playing at it */
+    private DoubleUnaryOperator microsToTick;
+    /** the last tick read from the source */
+    private int sampledTick;
+    /** the time of the tick the interpolation starts from */
+    private double anchorMicros;
+    /** the time of anchorTick, 0 until the first pulse */
+    private long anchorNanos;
+
+    /** the time between the line and the audio at the last pulse */
+    private long lastSkewMicros;
+    /** the largest time between the line and the audio since it started */
+    private long maxSkewMicros;
+
     /**
      * Initializes the tempoAnimation object with the default
      * values it needs
-     * Provides the animation with the tempoLine which it moves
-     * makes sure the animation is linear
-     * and sets our onFinished event
      */
     public TempoLine() {
-        this.tempoAnimation.setNode(this);
-        this.tempoAnimation.setInterpolator(Interpolator.LINEAR); // Don't ease
-        this.tempoAnimation.setOnFinished(event -> stopAnimation());
+        this.tempoAnimation = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                pulse(now);
+            }
+        };
         this.isPlaying.set(false);
     }
 
+    /**
+     * Sets where the tick being played is read from on each pulse
+     * @param tickSource gives the tick being played
+     */
+    public void setTickSource(IntSupplier tickSource) {
+        this.tickSource = tickSource;
+    }
+
+    /**
+     * Sets where the time being heard is read from, in microseconds
+     * from the start of the composition, to measure the skew between
+     * the line and the audio
+     * @param audioSource gives the time being heard
+     */
+    public void setAudioSource(LongSupplier audioSource) {
+        this.audioSource = audioSource;
+    }
+
+    /**
+     * Sets the conversions between ticks and time used between samples,
+     * so the line follows tempo changes
+     * @param tickToMicros converts a tick to the time it plays at
+     * @param microsToTick converts a time to the tick playing at it
+     */
+    public void setTempoMap(DoubleUnaryOperator tickToMicros,
+                            DoubleUnaryOperator microsToTick) {
+        this.tickToMicros = tickToMicros;
+        this.microsToTick = microsToTick;
+    }
+
     /**
      * Updates the tempoLine's stop location based on the input double
      *
@@ -40,19 +116,52 @@ public class TempoLine extends Line {
                                 double zoomFactor,
                                 int tempo){
         this.tempoAnimation.stop();
+        this.stopTick = stopTime;
+        this.zoomFactor = zoomFactor;
+        this.setTempo(tempo);
+        this.anchorMicros = this.toMicros(beginTime);
+        this.anchorNanos = 0;
+        this.sampledTick = (int) beginTime;
+        this.lastSkewMicros = 0;
+        this.maxSkewMicros = 0;
         this.setTranslateX(beginTime*zoomFactor);
-        double tpo = (double) tempo;
-        this.tempoAnimation.setDuration(new Duration((stopTime-beginTime)*10*(60.0/tpo)));
-        this.tempoAnimation.setToX(stopTime*zoomFactor);
         this.setVisible(true);
         this.isPlaying.set(true);
     }
 
+    /**
+     * Makes the line wrap back to the start of a region whenever it
+     * reaches its end, in step with a looping sequencer
+     * @param startTick the first tick of the region
+     * @param endTick the tick at which the line wraps back
+     */
+    public void setLoop(double startTick, double endTick) {
+        this.loopStart = startTick;
+        this.loopEnd = endTick;
+    }
+
+    /**
+     * Stops the line from wrapping
+     */
+    public void clearLoop() {
+        this.loopStart = -1;
+        this.loopEnd = -1;
+    }
+
+    /**
+     * Changes the speed the line moves at between samples when there
+     * is no tempo map
+     * @param tempo the number of beats per minute
+     */
+    public void setTempo(int tempo) {
+        this.tempo = Math.max(1, tempo);
+    }
+
     /**
      * Starts the animation of the tempoLine
      */
     public void playAnimation() {
-        this.tempoAnimation.play();
+        this.tempoAnimation.start();
     }
 
     /**
@@ -64,8 +173,94 @@ public class TempoLine extends Line {
         this.isPlaying.set(false);
     }
 
+    /**
+     * returns the time, in microseconds, between the position drawn and
+     * the position heard at the last pulse, positive when the line is
+     * ahead
+     */
+    public long getLastSkewMicros() {
+        return this.lastSkewMicros;
+    }
+
+    /**
+     * returns the largest time, in microseconds, between the position
+     * drawn and the position heard since the animation started
+     */
+    public long getMaxSkewMicros() {
+        return this.maxSkewMicros;
+    }
+
     /**
      * returns the isPlaying property
      */
     public BooleanProperty isPlayingProperty() { return this.isPlaying;}
+
+    /**
+     * Moves the line to the tick being played
+     * @param now the time of the pulse
+     */
+    private void pulse(long now) {
+        if (this.anchorNanos == 0) {
+            this.anchorNanos = now;
+        }
+        if (this.tickSource != null) {
+            int tick = this.tickSource.getAsInt();
+            if (tick != this.sampledTick) {
+                this.sampledTick = tick;
+                this.anchorMicros = this.toMicros(tick);
+                this.anchorNanos = now;
+            }
+        }
+        long elapsed = now - this.anchorNanos;
+        if (this.tickSource != null) {
+            elapsed = Math.min(elapsed, MAX_INTERPOLATION_NANOS);
+        }
+        double tick = Math.min(this.stopTick, this.toTick(this.anchorMicros + elapsed / 1000.0));
+        if (this.loopStart >= 0 && tick >= this.loopEnd) {
+            //the sequencer jumps back at the loop end, so the line does too
+            tick = this.loopStart + (tick - this.loopEnd) % (this.loopEnd - this.loopStart);
+        }
+        if (this.audioSource != null) {
+            this.measureSkew(tick, this.audioSource.getAsLong());
+        }
+        this.setTranslateX(tick * this.zoomFactor);
+
+        //with a source, wait for the audio to get there too
+        if (tick >= this.stopTick && (this.tickSource == null
+                || this.sampledTick >= this.stopTick || elapsed >= MAX_INTERPOLATION_NANOS)) {
+            stopAnimation();
+        }
+    }
+
+    /** compares the tick drawn with the time heard */
+    private void measureSkew(double tick, long heardMicros) {
+        double skew = this.toMicros(tick) - heardMicros;
+        if (this.loopStart >= 0) {
+            //just after a wrap one of the two is still at the other end of the loop
+            double loopMicros = this.toMicros(this.loopEnd) - this.toMicros(this.loopStart);
+            if (skew > loopMicros / 2) {
+                skew -= loopMicros;
+            } else if (skew < -loopMicros / 2) {
+                skew += loopMicros;
+            }
+        }
+        this.lastSkewMicros = (long) skew;
+        this.maxSkewMicros = Math.max(this.maxSkewMicros, Math.abs(this.lastSkewMicros));
+    }
+
+    /** returns the time at which a tick plays */
+    private double toMicros(double tick) {
+        if (this.tickToMicros != null) {
+            return this.tickToMicros.applyAsDouble(tick);
+        }
+        return tick * 60e6 / ((double) this.tempo * TICKS_PER_BEAT);
+    }
+
+    /** returns the tick playing at a time */
+    private double toTick(double micros) {
+        if (this.microsToTick != null) {
+            return this.microsToTick.applyAsDouble(micros);
+        }
+        return micros * this.tempo * TICKS_PER_BEAT / 60e6;
+    }
 }